@@ -0,0 +1,147 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every reading of the sensors to a file, so that it can be played
+ * back later by an <code>AdcReplay</code> without any sensors attached. The
+ * readings are packed tightly, so hours of them fit in a small file, and are
+ * buffered and written through a <code>FileChannel</code>, so recording costs
+ * little more than the packing.
+ * <p>
+ * The file begins with a header, followed by one record per reading. All
+ * fixed-size values are little-endian:
+ * <pre>
+ *   8 bytes   magic ("MFTHADC1")
+ *   int       the number of bits used for the channel (B)
+ *   for each reading:
+ *     varint  nanoseconds since the previous reading
+ *     varint  zigzag(value - previous value of the channel) &lt;&lt; B | channel
+ * </pre>
+ * A varint holds 7 bits per byte, lowest first, with the top bit of each
+ * byte set if another byte follows. Zigzag encoding maps small negative
+ * numbers to small positive ones. A reading usually takes 3 to 5 bytes.
+ * <p>
+ * Recording is synchronized, so that the recorder can be closed safely from
+ * another thread (such as a shutdown hook). Readings that arrive after the
+ * recorder is closed are dropped.
+ * 
+ * @see AdcReplay
+ * @author Matthew Flynn
+ * @version March 12th, 2018
+ */
+public class AdcRecorder implements Closeable, SampleRing.Handler {
+    
+    static final byte[] MAGIC = "MFTHADC1".getBytes(StandardCharsets.US_ASCII);
+    // the most bytes that one record can take
+    private static final int MAX_RECORD = 10 + 5;
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    private final int channelBits;
+    private final int channelMask;
+    private final short[] lastValues;
+    private long lastTime;
+    private boolean started;
+    private boolean closed;
+    private long records;
+    
+    /**
+     * Constructs an <code>AdcRecorder</code>, replacing the file if it exists
+     * 
+     * @param file the file to record to
+     * @param channels the number of channels that will be recorded
+     * @throws IOException if the file can't be opened
+     */
+    public AdcRecorder(File file, int channels) throws IOException {
+        if (channels < 1) {
+            throw new IllegalArgumentException("Invalid number of channels (" + channels + ")");
+        }
+        channelBits = 32 - Integer.numberOfLeadingZeros(channels - 1);
+        channelMask = (1 << channelBits) - 1;
+        lastValues = new short[1 << channelBits];
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.put(MAGIC).putInt(channelBits);
+    }
+    
+    /**
+     * Records one reading. Readings must be recorded in the order they were
+     * taken. Does nothing once the recorder is closed
+     * 
+     * @param time when the reading was taken (<code>System.nanoTime</code>)
+     * @param channel the channel that the reading came from
+     * @param value the value of the reading
+     */
+    @Override
+    public synchronized void onSample(long time, int channel, short value) {
+        if (closed) {
+            return;
+        }
+        if ((channel & ~channelMask) != 0) {
+            throw new IllegalArgumentException("The channel " + channel + " can't be recorded.");
+        }
+        if (buffer.remaining() < MAX_RECORD) {
+            flush();
+        }
+        putVarint(started ? Math.max(0, time - lastTime) : 0);
+        int delta = value - lastValues[channel];
+        putVarint(((long)((delta << 1) ^ (delta >> 31)) << channelBits) | channel);
+        lastTime = time;
+        lastValues[channel] = value;
+        started = true;
+        records++;
+    }
+    
+    /**
+     * Writes out every reading recorded so far, unless the recorder is closed
+     */
+    public synchronized void flush() {
+        if (closed) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the recording", e);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * @return the number of readings recorded
+     */
+    public long getRecords() {
+        return records;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        channel.close();
+    }
+    
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+    
+}
@@ -0,0 +1,228 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a recording made by an <code>AdcRecorder</code>, publishing the
+ * readings into a <code>SampleRing</code> as if they came from a
+ * <code>Sampler</code>. This lets the whole program be run, tested and
+ * profiled on a computer with no sensors attached.
+ * <p>
+ * The readings can be played back in real time, with the same spacing as
+ * when they were recorded, or as fast as possible, to measure how fast the
+ * rest of the program can go. Either way, no reading is ever dropped: if the
+ * ring is full, the replay waits. The timestamps are shifted so that the
+ * first reading is stamped with the time that the replay started.
+ * <p>
+ * Recordings hold the raw readings. Given a <code>ScanFilter</code>, the
+ * replay filters them the way a <code>Sampler</code> would: the readings are
+ * gathered into scans (a scan ends once every channel of the filter has been
+ * read, or a channel comes round again), and each scan is filtered before
+ * it's published. Channels beyond the filter's are published unfiltered.
+ * 
+ * @see AdcRecorder
+ * @author Matthew Flynn
+ * @version March 12th, 2018
+ */
+public class AdcReplay implements Runnable {
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    // how long to wait for room in the ring
+    private static final long FULL_NANOS = 50000;
+    
+    private final File file;
+    private final SampleRing ring;
+    private final boolean realTime;
+    private ScanFilter filter;
+    // the scan being gathered for the filter: the latest reading of every
+    // channel, when each channel in the scan was read, and which were. The
+    // scan is filtered into filtered, so that the raw readings are kept
+    private short[] scan;
+    private short[] filtered;
+    private long[] scanTimes;
+    private boolean[] inScan;
+    private int scanCount;
+    private volatile boolean running = true;
+    private volatile long replayed;
+    
+    /**
+     * Constructs an <code>AdcReplay</code>
+     * 
+     * @param file the recording to play back
+     * @param ring where to publish the readings
+     * @param realTime whether to keep the readings' original spacing, rather
+     * than playing them as fast as possible
+     */
+    public AdcReplay(File file, SampleRing ring, boolean realTime) {
+        this.file = file;
+        this.ring = ring;
+        this.realTime = realTime;
+    }
+    
+    /**
+     * Sets the filter that the readings go through before they're published,
+     * as the sampler would have filtered them. Call this before the replay
+     * is started
+     * 
+     * @param filter the filter, or null to publish the recorded readings as
+     * they are
+     */
+    public void setFilter(ScanFilter filter) {
+        this.filter = filter;
+        if (filter != null) {
+            scan = new short[filter.getChannels()];
+            filtered = new short[filter.getChannels()];
+            scanTimes = new long[filter.getChannels()];
+            inScan = new boolean[filter.getChannels()];
+            scanCount = 0;
+        }
+    }
+    
+    /**
+     * Starts playing back on a new thread
+     * 
+     * @return the thread the replay runs on, which ends with the recording
+     */
+    public Thread start() {
+        Thread ret = new Thread(this, "replay");
+        ret.setDaemon(true);
+        ret.start();
+        return ret;
+    }
+    
+    /**
+     * Stops playing back after the current reading
+     */
+    public void stop() {
+        running = false;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            replay();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replay " + file, e);
+        }
+    }
+    
+    // reads the recording a buffer at a time, and publishes every reading
+    private void replay() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            // start empty, so that the first fill reads from the beginning
+            buffer.limit(0);
+            fill(channel, buffer);
+            for (byte b : AdcRecorder.MAGIC) {
+                if (buffer.remaining() == 0 || buffer.get() != b) {
+                    throw new IOException(file + " is not an ADC recording");
+                }
+            }
+            int channelBits = buffer.getInt();
+            int channelMask = (1 << channelBits) - 1;
+            short[] lastValues = new short[1 << channelBits];
+            long start = System.nanoTime();
+            long time = start;
+            while (running) {
+                // a record is at most 15 bytes, so top the buffer up before
+                // it could run out in the middle of one
+                if (buffer.remaining() < 16 && !fill(channel, buffer)
+                        && !buffer.hasRemaining()) {
+                    break;
+                }
+                time += getVarint(buffer);
+                long packed = getVarint(buffer);
+                int ch = (int)(packed & channelMask);
+                int zigzag = (int)(packed >>> channelBits);
+                short value = (short)(lastValues[ch] + ((zigzag >>> 1) ^ -(zigzag & 1)));
+                lastValues[ch] = value;
+                if (realTime) {
+                    long wait;
+                    while ((wait = time - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                if (filter == null || ch >= scan.length) {
+                    publish(time, ch, value);
+                    continue;
+                }
+                if (inScan[ch]) {
+                    // a channel came round again before the scan was full
+                    publishScan();
+                }
+                scan[ch] = value;
+                scanTimes[ch] = time;
+                inScan[ch] = true;
+                if (++scanCount == scan.length) {
+                    publishScan();
+                }
+            }
+            if (filter != null && scanCount > 0) {
+                publishScan();
+            }
+        }
+    }
+    
+    // filters the scan gathered so far, and publishes the channels in it.
+    // Channels missing from the scan are filtered with their last reading,
+    // but not published
+    private void publishScan() {
+        long time = Long.MAX_VALUE;
+        for (int i = 0;i < scan.length;i++) {
+            if (inScan[i]) {
+                time = Math.min(time, scanTimes[i]);
+            }
+        }
+        filter.filter(time, scan, filtered);
+        for (int i = 0;i < scan.length;i++) {
+            if (inScan[i]) {
+                publish(scanTimes[i], i, filtered[i]);
+                inScan[i] = false;
+            }
+        }
+        scanCount = 0;
+    }
+    
+    // publishes one reading, waiting for room in the ring
+    private void publish(long time, int channel, short value) {
+        while (!ring.offer(time, channel, value)) {
+            LockSupport.parkNanos(FULL_NANOS);
+        }
+        replayed++;
+    }
+    
+    // moves what's left in the buffer to the front, and reads more after it.
+    // Returns whether anything was read
+    private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.compact();
+        int read = channel.read(buffer);
+        buffer.flip();
+        return read > 0;
+    }
+    
+    private static long getVarint(ByteBuffer buffer) {
+        long ret = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            ret |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return ret;
+    }
+    
+    /**
+     * @return the number of readings played back so far
+     */
+    public long getReplayed() {
+        return replayed;
+    }
+    
+}
@@ -0,0 +1,736 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * A real-time software mixer. All sound goes out through a single
+ * <code>SourceDataLine</code> that stays open for as long as the engine runs.
+ * A dedicated render thread adds together every voice that is currently
+ * playing, one small period at a time, and writes the result to the line.
+ * <p>
+ * Notes are started with <code>play</code>, which can be called from any
+ * thread and never blocks: it only queues the note, and the render thread
+ * picks it up at the start of its next period. Because every note gets its
+ * own voice, a note that is played again while it's still sounding doesn't
+ * cut itself off. Once running, the render thread does not allocate memory.
+ * <p>
+ * Every instrument has its own pool of voices, made up front, and no more
+ * than a set number of notes (the polyphony) sound at once across all of
+ * them. When a note needs a voice and there isn't one, a playing note is
+ * stolen, following the <code>StealPolicy</code>: the stolen note fades out
+ * over <code>FADE_FRAMES</code> frames rather than stopping dead, which
+ * would click.
+ * <p>
+ * Notes of synthesized instruments have no sample. Their voices render them
+ * from the instrument's <code>SynthPatch</code> as they play.
+ * <p>
+ * A sample can also be played at a different pitch than it was recorded, by
+ * playing it faster or slower. The voice steps through the sample at a rate
+ * taken from a table, worked out up front for every shift of up to 127
+ * semitones, and interpolates between the recorded frames with a cubic
+ * curve.
+ * <p>
+ * The period size and the number of periods buffered in the line trade
+ * latency against underruns: smaller is faster to respond, larger is safer.
+ *
+ * @see Sample
+ * @author Matthew Flynn
+ * @version February 3rd, 2018
+ */
+public class AudioEngine {
+
+    /**
+     * The sample rate that all audio is mixed at, in Hz
+     */
+    public static final float SAMPLE_RATE = 44100f;
+    /**
+     * The number of channels that all audio is mixed in
+     */
+    public static final int CHANNELS = 2;
+    /**
+     * The format of the audio written to the line. Every <code>Sample</code>
+     * is decoded into this format
+     */
+    public static final AudioFormat FORMAT =
+        new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+    /**
+     * The default number of frames mixed at a time (about 5.8ms)
+     */
+    public static final int DEFAULT_PERIOD = 256;
+    /**
+     * The default number of periods that the line buffers
+     */
+    public static final int DEFAULT_LINE_PERIODS = 3;
+    /**
+     * The default number of notes that can sound at once
+     */
+    public static final int DEFAULT_MAX_VOICES = 32;
+    /**
+     * The default number of notes of a single instrument that can sound at
+     * once
+     */
+    public static final int DEFAULT_VOICES_PER_INSTRUMENT = 16;
+    /**
+     * The number of frames that a stolen note takes to fade out (about 5.8ms)
+     */
+    public static final int FADE_FRAMES = 256;
+
+    /**
+     * Which playing note gives up its voice when a new note needs one
+     */
+    public enum StealPolicy {
+        /** the note that started first */
+        OLDEST,
+        /** the note that was quietest in the last period */
+        QUIETEST
+    }
+
+    // the size of the queue of notes waiting to be started
+    private static final int QUEUE_SIZE = 64;
+    // stands in for the sample of a synthesized note, in the queue and in
+    // voices
+    private static final Sample SYNTHESIZED = new Sample(new short[0]);
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+    // the rate at which a sample is played to shift it by a number of
+    // semitones, indexed by the shift + MAX_SHIFT. The rates are fixed point,
+    // with 32 fractional bits
+    private static final int MAX_SHIFT = 127;
+    private static final long[] RATES = new long[2 * MAX_SHIFT + 1];
+    static {
+        for (int i = 0;i < RATES.length;i++) {
+            RATES[i] = Math.round(Math.pow(2, (i - MAX_SHIFT) / 12.0) * (1L << 32));
+        }
+    }
+
+    private final int periodFrames;
+    private final int linePeriods;
+    // the voices of each instrument, indexed by ordinal. The last pool is for
+    // samples that aren't played as any instrument
+    private final Voice[][] pools;
+    // stolen notes, fading out
+    private final Voice[] fading;
+    private final int maxPolyphony;
+    private volatile StealPolicy stealPolicy = StealPolicy.OLDEST;
+    // the mix of one period, before it's clipped to 16 bits
+    private final int[] mix;
+    // the mix of one period, in the format of the line
+    private final byte[] out;
+
+    // notes waiting to be started. Any thread can add to the queue, but only
+    // the render thread takes from it. An empty slot is null
+    private final AtomicReferenceArray<Sample> queuedSamples =
+        new AtomicReferenceArray<>(QUEUE_SIZE);
+    private final float[] queuedGains = new float[QUEUE_SIZE];
+    private final int[] queuedPools = new int[QUEUE_SIZE];
+    // the MIDI code of each synthesized note, or the shift in semitones of
+    // each sampled one
+    private final int[] queuedNotes = new int[QUEUE_SIZE];
+    // when each note was queued, and when the press that caused it happened
+    private final long[] queuedTimes = new long[QUEUE_SIZE];
+    private final long[] pressTimes = new long[QUEUE_SIZE];
+    private final AtomicLong queueTail = new AtomicLong();
+    private volatile long queueHead;
+
+    private final AtomicLong droppedNotes = new AtomicLong();
+    private volatile long stolenNotes;
+    // the number of voices playing (not counting those fading out), and the
+    // number of notes started so far. Only changed by the render thread
+    private volatile int activeVoices;
+    private long notesStarted;
+    private volatile long underruns;
+    // how much audio was still waiting in the line after the last write.
+    // Only used by the render thread
+    private long bufferedNanos;
+
+    private SourceDataLine line;
+    private Thread renderThread;
+    private volatile boolean running;
+
+    /**
+     * Constructs an <code>AudioEngine</code> with the default period size,
+     * line buffer size and number of voices
+     */
+    public AudioEngine() {
+        this(DEFAULT_PERIOD, DEFAULT_LINE_PERIODS, DEFAULT_VOICES_PER_INSTRUMENT,
+            DEFAULT_MAX_VOICES);
+    }
+
+    /**
+     * Constructs an <code>AudioEngine</code> in which any one instrument can
+     * use every voice. The engine does not make any sound until it is
+     * started.
+     *
+     * @param periodFrames the number of frames to mix at a time
+     * @param linePeriods the number of periods that the line should buffer
+     * (at least 2)
+     * @param maxVoices the maximum number of notes that can sound at once
+     */
+    public AudioEngine(int periodFrames, int linePeriods, int maxVoices) {
+        this(periodFrames, linePeriods, maxVoices, maxVoices);
+    }
+
+    /**
+     * Constructs an <code>AudioEngine</code>. The engine does not make any
+     * sound until it is started.
+     *
+     * @param periodFrames the number of frames to mix at a time
+     * @param linePeriods the number of periods that the line should buffer
+     * (at least 2)
+     * @param voicesPerInstrument the maximum number of notes of one
+     * instrument that can sound at once
+     * @param maxPolyphony the maximum number of notes that can sound at once,
+     * across every instrument
+     */
+    public AudioEngine(int periodFrames, int linePeriods,
+            int voicesPerInstrument, int maxPolyphony) {
+        if (periodFrames < 1 || linePeriods < 2 || voicesPerInstrument < 1
+                || maxPolyphony < 1) {
+            throw new IllegalArgumentException("Invalid engine size ("
+                + periodFrames + " frames, " + linePeriods + " periods, "
+                + voicesPerInstrument + " voices per instrument, "
+                + maxPolyphony + " voices)");
+        }
+        this.periodFrames = periodFrames;
+        this.linePeriods = linePeriods;
+        this.maxPolyphony = maxPolyphony;
+        pools = new Voice[Instrument.values().length + 1][voicesPerInstrument];
+        for (Voice[] pool : pools) {
+            for (int i = 0;i < pool.length;i++) {
+                pool[i] = new Voice();
+            }
+        }
+        fading = new Voice[maxPolyphony];
+        for (int i = 0;i < fading.length;i++) {
+            fading[i] = new Voice();
+        }
+        mix = new int[periodFrames * CHANNELS];
+        out = new byte[periodFrames * FORMAT.getFrameSize()];
+    }
+
+    /**
+     * Opens the audio line and starts the render thread
+     *
+     * @throws LineUnavailableException if the audio line can't be opened
+     */
+    public synchronized void start() throws LineUnavailableException {
+        if (running) {
+            return;
+        }
+        line = AudioSystem.getSourceDataLine(FORMAT);
+        line.open(FORMAT, out.length * linePeriods);
+        line.start();
+        running = true;
+        renderThread = new Thread(this::renderLoop, "audio-render");
+        renderThread.setDaemon(true);
+        renderThread.setPriority(Thread.MAX_PRIORITY);
+        renderThread.start();
+    }
+
+    /**
+     * Stops the render thread and closes the audio line
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        line.stop();
+        line.close();
+    }
+
+    /**
+     * Queues a sample to start playing at the beginning of the next period.
+     * This method never blocks. If too many notes are already waiting to be
+     * started, the note is dropped.
+     *
+     * @param sample the sample to play
+     * @param gain the volume to play it at (1 plays it as recorded)
+     * @return whether or not the note was queued
+     */
+    public boolean play(Sample sample, float gain) {
+        return play(null, sample, gain, System.nanoTime());
+    }
+
+    /**
+     * Queues a sample to start playing at the beginning of the next period.
+     * This method never blocks. If too many notes are already waiting to be
+     * started, the note is dropped.
+     *
+     * @param sample the sample to play
+     * @param gain the volume to play it at (1 plays it as recorded)
+     * @param pressTime when the press that caused the note happened (as given
+     * by <code>System.nanoTime</code>), for measuring the latency
+     * @return whether or not the note was queued
+     */
+    public boolean play(Sample sample, float gain, long pressTime) {
+        return play(null, sample, gain, pressTime);
+    }
+
+    /**
+     * Queues a note of an instrument to start playing at the beginning of the
+     * next period, using one of that instrument's voices. This method never
+     * blocks. If too many notes are already waiting to be started, the note
+     * is dropped.
+     *
+     * @param instrument the instrument that the note is played on, or null if
+     * it isn't played on any
+     * @param sample the sample to play
+     * @param gain the volume to play it at (1 plays it as recorded)
+     * @param pressTime when the press that caused the note happened (as given
+     * by <code>System.nanoTime</code>), for measuring the latency
+     * @return whether or not the note was queued
+     */
+    public boolean play(Instrument instrument, Sample sample, float gain,
+            long pressTime) {
+        return play(instrument, sample, 0, gain, pressTime);
+    }
+
+    /**
+     * Queues a note of an instrument to start playing at the beginning of the
+     * next period, at a different pitch than its sample was recorded at. This
+     * method never blocks. If too many notes are already waiting to be
+     * started, the note is dropped.
+     *
+     * @param instrument the instrument that the note is played on, or null if
+     * it isn't played on any
+     * @param sample the sample to play
+     * @param semitones how far to shift the sample's pitch, in semitones (up,
+     * or down if negative)
+     * @param gain the volume to play it at (1 plays it as recorded)
+     * @param pressTime when the press that caused the note happened (as given
+     * by <code>System.nanoTime</code>), for measuring the latency
+     * @return whether or not the note was queued
+     */
+    public boolean play(Instrument instrument, Sample sample, int semitones,
+            float gain, long pressTime) {
+        if (sample == null) {
+            throw new IllegalArgumentException("Cannot play a null sample");
+        }
+        if (Math.abs(semitones) > MAX_SHIFT) {
+            throw new IllegalArgumentException("Cannot shift a sample by " + semitones + " semitones");
+        }
+        return queue(instrument, sample, semitones, gain, pressTime);
+    }
+
+    /**
+     * Queues a note of a synthesized instrument to start playing at the
+     * beginning of the next period. This method never blocks. If too many
+     * notes are already waiting to be started, the note is dropped.
+     *
+     * @param instrument the instrument that the note is played on (it must
+     * have a <code>SynthPatch</code>)
+     * @param p the pitch of the note
+     * @param gain the volume to play it at (1 plays it at the patch's full
+     * volume)
+     * @param pressTime when the press that caused the note happened (as given
+     * by <code>System.nanoTime</code>), for measuring the latency
+     * @return whether or not the note was queued
+     */
+    public boolean play(Instrument instrument, Pitch p, float gain, long pressTime) {
+        if (instrument.patch == null) {
+            throw new IllegalArgumentException(instrument + " is not synthesized");
+        }
+        return queue(instrument, SYNTHESIZED, p.MIDICode, gain, pressTime);
+    }
+
+    // adds a note to the queue, unless it's full
+    private boolean queue(Instrument instrument, Sample sample, int note,
+            float gain, long pressTime) {
+        long tail;
+        do {
+            tail = queueTail.get();
+            if (tail - queueHead >= QUEUE_SIZE) {
+                droppedNotes.incrementAndGet();
+                return false;
+            }
+        } while (!queueTail.compareAndSet(tail, tail + 1));
+        int slot = (int)(tail % QUEUE_SIZE);
+        queuedGains[slot] = gain;
+        queuedPools[slot] = instrument == null ? pools.length - 1
+            : instrument.ordinal();
+        queuedNotes[slot] = note;
+        queuedTimes[slot] = System.nanoTime();
+        pressTimes[slot] = pressTime;
+        // publishing the sample makes the gain visible to the render thread
+        queuedSamples.lazySet(slot, sample);
+        return true;
+    }
+
+    /**
+     * @return the number of frames mixed at a time
+     */
+    public int getPeriodFrames() {
+        return periodFrames;
+    }
+
+    /**
+     * @return the time it takes to play one period, in nanoseconds
+     */
+    public long getPeriodNanos() {
+        return (long)(periodFrames * 1e9 / SAMPLE_RATE);
+    }
+
+    /**
+     * Sets which playing note gives up its voice when a new note needs one.
+     * The default is <code>StealPolicy.OLDEST</code>
+     *
+     * @param policy the policy
+     */
+    public void setStealPolicy(StealPolicy policy) {
+        stealPolicy = policy;
+    }
+
+    /**
+     * @return which playing note gives up its voice when a new note needs one
+     */
+    public StealPolicy getStealPolicy() {
+        return stealPolicy;
+    }
+
+    /**
+     * @return the maximum number of notes that can sound at once
+     */
+    public int getMaxPolyphony() {
+        return maxPolyphony;
+    }
+
+    /**
+     * @return the number of notes sounding, not counting stolen notes that
+     * are fading out
+     */
+    public int getActiveVoices() {
+        return activeVoices;
+    }
+
+    /**
+     * @return the number of notes queued but not started yet. They start at
+     * the beginning of the next period
+     */
+    public int getPendingNotes() {
+        return (int)(queueTail.get() - queueHead);
+    }
+
+    /**
+     * @return the number of notes that were not played because the queue was
+     * full
+     */
+    public long getDroppedNotes() {
+        return droppedNotes.get();
+    }
+
+    /**
+     * @return the number of notes cut short to make room for a new note
+     */
+    public long getStolenNotes() {
+        return stolenNotes;
+    }
+
+    /**
+     * @return the number of times the line ran out of audio to play
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    // the body of the render thread
+    private void renderLoop() {
+        while (running) {
+            render();
+            // if the line has nothing left to play, it has already gone
+            // silent, so the mixing didn't keep up
+            if (line.available() >= line.getBufferSize()) {
+                underruns++;
+                Metrics.countUnderrun();
+            }
+            // blocks until there's room in the line, which paces the thread
+            line.write(out, 0, out.length);
+            bufferedNanos = (long)((line.getBufferSize() - line.available())
+                / FORMAT.getFrameSize() * 1e9 / SAMPLE_RATE);
+        }
+    }
+
+    /**
+     * Mixes one period of audio from every playing voice. Only the render
+     * thread should call this, except when the engine is used offline (never
+     * started), in which case the caller takes the render thread's place.
+     * Offline, no latencies are recorded in <code>Metrics</code>.
+     *
+     * @return the mixed period, in the format of <code>FORMAT</code>. The
+     * array is reused by the next call
+     */
+    byte[] render() {
+        startQueuedNotes();
+        Arrays.fill(mix, 0);
+        int active = activeVoices;
+        for (Voice[] pool : pools) {
+            for (Voice voice : pool) {
+                if (voice.sample != null) {
+                    voice.mixInto(mix, periodFrames);
+                    if (voice.sample == null) {
+                        active--;
+                    }
+                }
+            }
+        }
+        activeVoices = active;
+        for (Voice voice : fading) {
+            if (voice.sample != null) {
+                voice.mixInto(mix, periodFrames);
+            }
+        }
+        for (int i = 0;i < mix.length;i++) {
+            int value = mix[i];
+            if (value > Short.MAX_VALUE) {
+                value = Short.MAX_VALUE;
+            } else if (value < Short.MIN_VALUE) {
+                value = Short.MIN_VALUE;
+            }
+            out[2 * i] = (byte)value;
+            out[2 * i + 1] = (byte)(value >> 8);
+        }
+        return out;
+    }
+
+    // gives every queued note a voice
+    private void startQueuedNotes() {
+        long head = queueHead;
+        while (true) {
+            int slot = (int)(head % QUEUE_SIZE);
+            Sample sample = queuedSamples.get(slot);
+            if (sample == null) {
+                break;
+            }
+            float gain = queuedGains[slot];
+            int poolIndex = queuedPools[slot];
+            // rendered offline, faster than real time, the wall clock says
+            // nothing about how long a note took to sound
+            if (running) {
+                long now = System.nanoTime();
+                Metrics.LINE_START.record(now - queuedTimes[slot]);
+                // the note reaches the speaker once the audio already in the
+                // line has played
+                Metrics.PRESS_TO_SOUND.record(now - pressTimes[slot] + bufferedNanos);
+            }
+            queuedSamples.lazySet(slot, null);
+            head++;
+            Voice voice = voiceFor(pools[poolIndex]);
+            voice.start(sample, gain, notesStarted++);
+            if (sample == SYNTHESIZED) {
+                voice.tone.start(INSTRUMENTS[poolIndex].patch, queuedNotes[slot]);
+            } else {
+                voice.step = RATES[queuedNotes[slot] + MAX_SHIFT];
+            }
+        }
+        queueHead = head;
+    }
+
+    // finds a voice in a pool for a new note, stealing one if need be
+    private Voice voiceFor(Voice[] pool) {
+        Voice free = null;
+        for (Voice voice : pool) {
+            if (voice.sample == null) {
+                free = voice;
+                break;
+            }
+        }
+        if (free != null && activeVoices < maxPolyphony) {
+            activeVoices++;
+            return free;
+        }
+        // if the instrument has used up its own voices, one of its notes is
+        // stolen. Otherwise every voice in use is, and any note can be
+        Voice victim = null;
+        if (free == null) {
+            victim = chooseVictim(pool, null);
+        } else {
+            for (Voice[] other : pools) {
+                victim = chooseVictim(other, victim);
+            }
+        }
+        fadeOut(victim);
+        stolenNotes++;
+        return free == null ? victim : free;
+    }
+
+    // picks whichever note in a pool should be stolen before the best one so
+    // far, by the steal policy
+    private Voice chooseVictim(Voice[] pool, Voice best) {
+        boolean quietest = stealPolicy == StealPolicy.QUIETEST;
+        for (Voice voice : pool) {
+            if (voice.sample == null) {
+                continue;
+            }
+            if (best == null || (quietest ? voice.level < best.level
+                    : voice.order < best.order)) {
+                best = voice;
+            }
+        }
+        return best;
+    }
+
+    // hands a stolen note over to a fading voice, leaving its own voice free.
+    // If every fading voice is busy, the note just stops
+    private void fadeOut(Voice victim) {
+        for (Voice voice : fading) {
+            if (voice.sample == null) {
+                voice.sample = victim.sample;
+                voice.position = victim.position;
+                voice.fraction = victim.fraction;
+                voice.step = victim.step;
+                voice.gain = victim.gain;
+                if (victim.sample == SYNTHESIZED) {
+                    // a synthesized note fades out with its own envelope
+                    voice.tone.copyFrom(victim.tone);
+                    voice.tone.release(FADE_FRAMES);
+                } else {
+                    voice.fadeLeft = FADE_FRAMES;
+                }
+                break;
+            }
+        }
+        victim.sample = null;
+    }
+
+    // one note being played. Only used by the render thread
+    private static final class Voice {
+
+        // the gain is fixed point, with this many fractional bits
+        private static final int GAIN_BITS = 12;
+        // FADE_FRAMES is 1 << FADE_BITS
+        private static final int FADE_BITS = 8;
+        // the step of a sample played at the pitch it was recorded at
+        private static final long UNSHIFTED = 1L << 32;
+
+        // the sample being played, or null if the voice is free
+        private Sample sample;
+        // the next frame of the sample to be played, how far past it the
+        // voice is, and how far it moves each frame. Both are fixed point,
+        // with 32 fractional bits
+        private int position;
+        private long fraction;
+        private long step;
+        private int gain;
+        // when the note started, relative to other notes
+        private long order;
+        // the loudest value this voice added to the last period's mix
+        private int level;
+        // the number of frames left to fade out over, or 0 if not fading
+        private int fadeLeft;
+        // renders the note, if it's synthesized
+        private final SynthPatch.Tone tone = new SynthPatch.Tone();
+
+        private void start(Sample sample, float gain, long order) {
+            this.sample = sample;
+            position = 0;
+            fraction = 0;
+            step = UNSHIFTED;
+            this.gain = Math.round(gain * (1 << GAIN_BITS));
+            this.order = order;
+            // a note that hasn't been heard yet is never the quietest
+            level = Integer.MAX_VALUE;
+            fadeLeft = 0;
+        }
+
+        // adds up to the given number of frames of this voice into the mix
+        private void mixInto(int[] mix, int frames) {
+            if (sample == SYNTHESIZED) {
+                level = tone.mixInto(mix, frames, gain);
+                if (tone.isDone()) {
+                    sample = null;
+                }
+                return;
+            }
+            if (step != UNSHIFTED) {
+                mixShifted(mix, frames);
+                return;
+            }
+            int count = Math.min(frames, sample.frames - position);
+            int from = position * CHANNELS;
+            if (fadeLeft > 0) {
+                // ramp the gain down to nothing, one frame at a time
+                count = Math.min(count, fadeLeft);
+                for (int f = 0;f < count;f++) {
+                    int frameGain = (gain * (fadeLeft - f)) >> FADE_BITS;
+                    for (int c = 0;c < CHANNELS;c++) {
+                        int i = f * CHANNELS + c;
+                        mix[i] += (sample.pcm.get(from + i) * frameGain) >> GAIN_BITS;
+                    }
+                }
+                fadeLeft -= count;
+                position += count;
+                if (fadeLeft == 0 || position >= sample.frames) {
+                    sample = null;
+                }
+                return;
+            }
+            int peak = 0;
+            for (int i = 0;i < count * CHANNELS;i++) {
+                int value = (sample.pcm.get(from + i) * gain) >> GAIN_BITS;
+                mix[i] += value;
+                peak = Math.max(peak, Math.abs(value));
+            }
+            level = peak;
+            position += count;
+            if (position >= sample.frames) {
+                sample = null;
+            }
+        }
+
+        // adds up to the given number of frames of this voice into the mix,
+        // stepping through the sample faster or slower than it was recorded.
+        // The value between two frames is found with a Catmull-Rom curve
+        // through the frames around it
+        private void mixShifted(int[] mix, int frames) {
+            int last = sample.frames - 1;
+            int count = fadeLeft > 0 ? Math.min(frames, fadeLeft) : frames;
+            int peak = 0;
+            int f = 0;
+            for (;f < count && position <= last;f++) {
+                float t = fraction * 0x1p-32f;
+                int frameGain = fadeLeft > 0 ? (gain * (fadeLeft - f)) >> FADE_BITS : gain;
+                for (int c = 0;c < CHANNELS;c++) {
+                    int y0 = valueAt(position - 1, c, last);
+                    int y1 = valueAt(position, c, last);
+                    int y2 = valueAt(position + 1, c, last);
+                    int y3 = valueAt(position + 2, c, last);
+                    float curve = y1 + 0.5f * t * (y2 - y0 + t * (2 * y0 - 5 * y1
+                        + 4 * y2 - y3 + t * (3 * (y1 - y2) + y3 - y0)));
+                    int value = ((int)curve * frameGain) >> GAIN_BITS;
+                    mix[f * CHANNELS + c] += value;
+                    peak = Math.max(peak, Math.abs(value));
+                }
+                long next = fraction + step;
+                position += (int)(next >>> 32);
+                fraction = next & 0xFFFFFFFFL;
+            }
+            level = peak;
+            if (fadeLeft > 0) {
+                fadeLeft -= f;
+                if (fadeLeft == 0) {
+                    sample = null;
+                }
+            }
+            if (position > last) {
+                sample = null;
+            }
+        }
+
+        // one channel of a frame of the sample, holding the first and last
+        // frames past either end
+        private int valueAt(int frame, int channel, int last) {
+            int clamped = frame < 0 ? 0 : frame > last ? last : frame;
+            return sample.pcm.get(clamped * CHANNELS + channel);
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Follows the resting level of a signal, and how noisy it is, as the readings
+ * come in. The level is an exponentially weighted mean, and the noise an
+ * exponentially weighted standard deviation, so every reading takes constant
+ * time and nothing is allocated, however long the tracker runs.
+ * <p>
+ * The weights are worked out from the time between readings, rather than
+ * counted in readings, so the estimates cover the same stretch of time
+ * whether the sensors are read 1000 or 200 times a second (or unevenly).
+ * <p>
+ * The values are kept as <code>float</code>s, so another thread can read them
+ * at any time without seeing a half-written value.
+ * 
+ * @see PulseSensor
+ * @author Matthew Flynn
+ * @version February 26th, 2018
+ */
+public class BaselineTracker {
+    
+    // the time constant of the estimates, which is also how long the
+    // readings must span before the estimates can be trusted
+    private final long windowNanos;
+    
+    private float mean;
+    private float variance;
+    private boolean started;
+    private long startTime;
+    private long lastTime;
+    private volatile boolean warm;
+    
+    /**
+     * Constructs a <code>BaselineTracker</code>
+     * 
+     * @param windowNanos roughly how far back, in nanoseconds, the readings
+     * that the estimates are based on go (older readings fade out gradually)
+     */
+    public BaselineTracker(long windowNanos) {
+        if (windowNanos < 1) {
+            throw new IllegalArgumentException("Invalid window (" + windowNanos + "ns)");
+        }
+        this.windowNanos = windowNanos;
+    }
+    
+    /**
+     * Adds a reading to the estimates
+     * 
+     * @param time when the reading was taken (<code>System.nanoTime</code>)
+     * @param value the reading
+     */
+    public void update(long time, int value) {
+        if (!started) {
+            mean = value;
+            variance = 0;
+            startTime = time;
+            lastTime = time;
+            started = true;
+            return;
+        }
+        long gap = Math.max(0, time - lastTime);
+        lastTime = time;
+        // close to 1 - e^(-gap / window), for gaps much shorter than the
+        // window, without the exponential
+        float alpha = gap / (float)(windowNanos + gap);
+        float diff = value - mean;
+        mean += alpha * diff;
+        variance = (1 - alpha) * (variance + alpha * diff * diff);
+        if (!warm && time - startTime >= windowNanos) {
+            warm = true;
+        }
+    }
+    
+    /**
+     * Moves the level slowly towards a reading that isn't the signal at rest
+     * (such as a reading during a press), leaving the noise alone. A reading
+     * that stays away from the level for much longer than the drift's window
+     * (because the signal's resting level has changed) eventually becomes
+     * the level, while a short press hardly moves it
+     * 
+     * @param time when the reading was taken (<code>System.nanoTime</code>)
+     * @param value the reading
+     * @param windowNanos the time constant to move the level with, in
+     * nanoseconds (much longer than the tracker's own window)
+     */
+    public void drift(long time, int value, long windowNanos) {
+        if (!started) {
+            update(time, value);
+            return;
+        }
+        long gap = Math.max(0, time - lastTime);
+        lastTime = time;
+        mean += gap / (float)(windowNanos + gap) * (value - mean);
+    }
+    
+    /**
+     * Forgets every reading, as if the tracker were new
+     */
+    public void reset() {
+        started = false;
+        warm = false;
+    }
+    
+    /**
+     * @return whether the readings seen span enough time for the estimates
+     * to be trusted
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+    
+    /**
+     * @return the current resting level of the signal
+     */
+    public float getMean() {
+        return mean;
+    }
+    
+    /**
+     * @return the current noise of the signal (its standard deviation)
+     */
+    public float getDeviation() {
+        return (float)Math.sqrt(variance);
+    }
+    
+}
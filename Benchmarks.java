@@ -0,0 +1,424 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Benchmarks of the hot paths of the program: talking to the MCP3208,
+ * detecting presses, looking up samples and mixing notes. Everything runs
+ * against in-memory stand-ins (a <code>ScriptedTransport</code> instead of
+ * the GPIO pins, and an <code>AudioEngine</code> that is rendered by hand
+ * instead of writing to a line), so the results can be compared between a
+ * Raspberry Pi and an ordinary Linux computer.
+ * <p>
+ * Each benchmark is warmed up, then measured over several fixed-length
+ * rounds, and the mean and spread of the rounds are printed. All inputs are
+ * generated from fixed seeds, so runs are repeatable. Run with the names of
+ * the benchmarks to run, or with no arguments to run all of them (except
+ * <code>adc.bitbang</code>, which needs a Raspberry Pi and must be named).
+ * Each benchmark runs in a fresh JVM of its own, so that one benchmark's
+ * JIT profile can't skew the next, unless <code>--no-fork</code> is given.
+ * With Maven, run <code>mvn -P bench verify</code>.
+ * <p>
+ * This is a stopgap for JMH, not a replacement. JMH can't be used yet: it
+ * generates its benchmark classes into the package of the benchmarks, and
+ * refuses the default package, while a benchmark in any other package can't
+ * see the classes it would measure, since every class of the program is in
+ * the default package. Once the program is moved into a package, these
+ * should become JMH benchmarks.
+ * 
+ * @author Matthew Flynn
+ * @version March 5th, 2018
+ */
+public class Benchmarks {
+    
+    // a piece of code to be timed. It returns a value so that the JIT can't
+    // throw the work away
+    private interface Op {
+        long run();
+    }
+    
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final long ROUND_NANOS = 200000000;
+    
+    // results are added to this, so that no work is dead code
+    private static volatile long sink;
+    
+    /**
+     * Runs the benchmarks
+     * 
+     * @param args the names of the benchmarks to run (all of them if none),
+     * optionally after <code>--no-fork</code> to run them all in this JVM
+     * @throws Exception if the stand-in sound files can't be written, or a
+     * forked JVM can't be started
+     */
+    public static void main(String[] args) throws Exception {
+        boolean fork = true;
+        // a forked JVM runs the one benchmark it's given, without a header
+        boolean forked = false;
+        List<String> names = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--no-fork")) {
+                fork = false;
+            } else if (arg.equals("--forked")) {
+                forked = true;
+            } else {
+                names.add(arg);
+            }
+        }
+        if (names.isEmpty()) {
+            names.addAll(Arrays.asList("adc.read", "adc.scan", "adc.gpiomem",
+                "filter.scan", "detect", "cache.hit", "cache.miss", "trigger",
+                "mix.voice", "mix.shifted", "synth.voice", "steal", "render.wav"));
+        }
+        if (!forked) {
+            System.out.println(System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version") + ", "
+                + System.getProperty("os.arch") + ", "
+                + Runtime.getRuntime().availableProcessors() + " cpus");
+            System.out.printf("%-24s %14s %14s %14s%n", "benchmark", "ns/op", "+/-", "ops/s");
+        }
+        for (String name : names) {
+            if (fork && !forked) {
+                runForked(name);
+            } else {
+                run(name);
+            }
+        }
+    }
+    
+    // runs one benchmark in a new JVM, with the same class path, printing
+    // straight to this one's output
+    private static void runForked(String name) throws IOException,
+            InterruptedException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"),
+            "java").getPath();
+        Process process = new ProcessBuilder(java, "-cp",
+            System.getProperty("java.class.path"), Benchmarks.class.getName(),
+            "--forked", name).inheritIO().start();
+        if (process.waitFor() != 0) {
+            System.out.println(name + " failed (exit code " + process.exitValue() + ")");
+        }
+    }
+    
+    // sets up and runs one benchmark by name
+    private static void run(String name) throws IOException,
+            UnsupportedAudioFileException {
+        switch (name) {
+        case "adc.read": {
+            // encoding a request, the transfer and decoding the response
+            MCP3208 adc = new MCP3208(new ScriptedTransport(waveform(1024, 1)));
+            time(name, 1, () -> adc.read(3));
+            break;
+        }
+        case "adc.scan": {
+            // one op is one channel, so this compares directly to adc.read
+            MCP3208 adc = new MCP3208(new ScriptedTransport(waveform(1024, 1)));
+            short[] out = new short[MCP3208.CHANNELS];
+            time(name, MCP3208.CHANNELS, () -> adc.scan(out));
+            break;
+        }
+        case "adc.gpiomem": {
+            // one op is one conversion, bit-banged through a register block.
+            // Off the Pi, an ordinary file stands in for the registers
+            File registers = File.createTempFile("gpiomem", ".bin");
+            registers.deleteOnExit();
+            MCP3208 adc = new MCP3208(new GpioMemTransport(registers, 21, 22, 24, 23));
+            time(name, 1, () -> adc.read(3));
+            break;
+        }
+        case "adc.bitbang": {
+            // one op is one conversion, bit-banged through Pi4J, to compare
+            // with adc.gpiomem. Only works on the Pi, with an MCP3208 on the
+            // pins that SoundPlayer uses
+            MCP3208 adc = new MCP3208(21, 22, 23, 24);
+            time(name, 1, () -> adc.read(3));
+            break;
+        }
+        case "filter.scan": {
+            // one op is one scan of 8 MCP3208s (64 channels) through the
+            // filter. At 1000 scans per second, this must stay well under
+            // 1ms
+            int channels = 8 * MCP3208.CHANNELS;
+            short[] readings = waveform(1 << 16, 3);
+            ScanFilter filter = new ScanFilter(channels);
+            short[] scan = new short[channels];
+            int[] next = new int[1];
+            long[] time = new long[1];
+            time(name, 1, () -> {
+                int start = next[0];
+                for (int i = 0;i < channels;i++) {
+                    scan[i] = readings[(start + 97 * i) & (readings.length - 1)];
+                }
+                next[0] = (start + 1) & (readings.length - 1);
+                time[0] += 1000000;
+                filter.filter(time[0], scan, scan);
+                return scan[0];
+            });
+            break;
+        }
+        case "detect": {
+            // one op is one reading of one sensor, with events and heart rate
+            short[] readings = waveform(1 << 16, 2);
+            PulseSensor sensor = new PulseSensor(null, 0, Pitch.C4);
+            EventQueue events = new EventQueue(1024);
+            EventQueue.Handler ignore = event -> {};
+            sensor.setEventQueue(events);
+            sensor.trackHeartRate();
+            long[] time = new long[1];
+            time(name, readings.length, () -> {
+                long presses = 0;
+                for (short reading : readings) {
+                    time[0] += 1000000;
+                    if (sensor.update(time[0], reading)) {
+                        presses++;
+                    }
+                }
+                events.drain(ignore, Integer.MAX_VALUE);
+                return presses;
+            });
+            break;
+        }
+        case "cache.hit": {
+            // a lookup of a sample that is already loaded (from a bank)
+            File samples = standInSamples();
+            Instrument.useBank(SampleBank.loadOrBuild(samples,
+                new File(samples, SampleBank.DEFAULT_NAME)));
+            time(name, 1, () -> Instrument.PIANO.getSound(Pitch.C4).frames);
+            break;
+        }
+        case "cache.miss": {
+            // what a lookup costs when the sample still has to be decoded
+            File soundFile = Instrument.PIANO.fileOf(standInSamples(), Pitch.C4);
+            time(name, 1, () -> {
+                try {
+                    return Sample.decode(soundFile).frames;
+                } catch (IOException | UnsupportedAudioFileException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            break;
+        }
+        case "trigger": {
+            // from play() to the end of the first period with the note in it
+            AudioEngine engine = new AudioEngine();
+            Sample sample = standInSample(AudioEngine.DEFAULT_PERIOD);
+            time(name, 1, () -> {
+                engine.play(sample, 1f);
+                return engine.render()[0];
+            });
+            break;
+        }
+        case "mix.voice": {
+            // one op is one period of one voice
+            int voices = 16;
+            AudioEngine engine = new AudioEngine(AudioEngine.DEFAULT_PERIOD,
+                AudioEngine.DEFAULT_LINE_PERIODS, voices);
+            Sample sample = standInSample((int)AudioEngine.SAMPLE_RATE);
+            time(name, voices, () -> {
+                // keep every voice busy, without stealing any
+                if (engine.getActiveVoices() == 0) {
+                    for (int i = 0;i < voices;i++) {
+                        engine.play(sample, 0.5f);
+                    }
+                }
+                return engine.render()[0];
+            });
+            break;
+        }
+        case "mix.shifted": {
+            // one op is one period of one voice, played a few semitones away
+            // from its sample's pitch
+            int voices = 16;
+            AudioEngine engine = new AudioEngine(AudioEngine.DEFAULT_PERIOD,
+                AudioEngine.DEFAULT_LINE_PERIODS, voices);
+            Sample sample = standInSample((int)AudioEngine.SAMPLE_RATE);
+            time(name, voices, () -> {
+                // keep every voice busy, without stealing any
+                if (engine.getActiveVoices() == 0) {
+                    for (int i = 0;i < voices;i++) {
+                        engine.play(null, sample, i % 5 - 2, 0.5f, System.nanoTime());
+                    }
+                }
+                return engine.render()[0];
+            });
+            break;
+        }
+        case "synth.voice": {
+            // one op is one period of one synthesized voice
+            int voices = 16;
+            AudioEngine engine = new AudioEngine(AudioEngine.DEFAULT_PERIOD,
+                AudioEngine.DEFAULT_LINE_PERIODS, voices);
+            Pitch[] pitches = Pitch.values();
+            time(name, voices, () -> {
+                // keep every voice busy, without stealing any
+                if (engine.getActiveVoices() == 0) {
+                    for (int i = 0;i < voices;i++) {
+                        engine.play(Instrument.ORGAN, pitches[i % pitches.length],
+                            0.5f, System.nanoTime());
+                    }
+                }
+                return engine.render()[0];
+            });
+            break;
+        }
+        case "steal": {
+            // one op is a period in which a new note steals a voice, with
+            // every voice busy and earlier stolen notes still fading out
+            int voices = 16;
+            AudioEngine engine = new AudioEngine(AudioEngine.DEFAULT_PERIOD,
+                AudioEngine.DEFAULT_LINE_PERIODS, voices);
+            Sample sample = standInSample((int)AudioEngine.SAMPLE_RATE);
+            time(name, 1, () -> {
+                engine.play(sample, 0.5f);
+                return engine.render()[0];
+            });
+            break;
+        }
+        case "render.wav": {
+            // one op is one period of one voice, mixed offline and written to
+            // a WAV file. The session is the same every time, so the number
+            // of voice periods is found by rendering it once
+            File samples = standInSamples();
+            Instrument.useBank(SampleBank.loadOrBuild(samples,
+                new File(samples, SampleBank.DEFAULT_NAME)));
+            File wav = File.createTempFile("render", ".wav");
+            wav.deleteOnExit();
+            int voicePeriods = (int)(renderSession(wav).getVoiceFrames()
+                / AudioEngine.DEFAULT_PERIOD);
+            time(name, voicePeriods, () -> renderSession(wav).getFrames());
+            break;
+        }
+        default:
+            System.out.println("No benchmark named " + name);
+        }
+    }
+    
+    // times an op over several rounds and prints the result. Each call of the
+    // op counts as opsPerCall ops
+    private static void time(String name, int opsPerCall, Op op) {
+        for (int i = 0;i < WARMUP_ROUNDS;i++) {
+            round(op);
+        }
+        double[] nanosPerOp = new double[ROUNDS];
+        double mean = 0;
+        for (int i = 0;i < ROUNDS;i++) {
+            long[] result = round(op);
+            nanosPerOp[i] = (double)result[1] / (result[0] * opsPerCall);
+            mean += nanosPerOp[i] / ROUNDS;
+        }
+        double variance = 0;
+        for (double n : nanosPerOp) {
+            variance += (n - mean) * (n - mean) / ROUNDS;
+        }
+        System.out.printf("%-24s %14.1f %14.1f %14.0f%n", name, mean,
+            Math.sqrt(variance), 1e9 / mean);
+    }
+    
+    // calls an op over and over for one round, and returns the number of calls
+    // and the time they took
+    private static long[] round(Op op) {
+        long calls = 0;
+        long total = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0;i < 64;i++) {
+                total += op.run();
+            }
+            calls += 64;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ROUND_NANOS);
+        sink += total;
+        return new long[] {calls, elapsed};
+    }
+    
+    // generates readings like a pulse sensor's: a slow heart beat on a
+    // resting level, with noise, and a press every few thousand readings
+    static short[] waveform(int length, long seed) {
+        Random random = new Random(seed);
+        short[] ret = new short[length];
+        for (int i = 0;i < length;i++) {
+            double beat = (i % 830) < 100 ? 60 * Math.sin(Math.PI * (i % 830) / 100) : 0;
+            double value = 2000 + beat + 10 * random.nextGaussian();
+            if (i % 3000 > 2850) {
+                value -= 1400;
+            }
+            ret[i] = (short)Math.max(0, Math.min(4095, value));
+        }
+        return ret;
+    }
+    
+    // renders a short session of sampled and synthesized notes, 10ms apart,
+    // into a WAV file
+    private static WavRenderer renderSession(File wav) {
+        try {
+            WavRenderer ret = new WavRenderer(wav, new AudioEngine(), 0);
+            for (int i = 0;i < 16;i++) {
+                Instrument instrument = i % 4 == 3 ? Instrument.ORGAN : Instrument.PIANO;
+                ret.noteOn(instrument, Pitch.fromMidi(Pitch.C4.MIDICode + i % 13),
+                    0.75f, i * 10000000L);
+            }
+            ret.close();
+            return ret;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // a sample of the given length, already in the engine's format
+    private static Sample standInSample(int frames) {
+        short[] pcm = new short[frames * AudioEngine.CHANNELS];
+        for (int i = 0;i < pcm.length;i++) {
+            pcm[i] = (short)(8000 * Math.sin(i * 0.01));
+        }
+        return new Sample(pcm);
+    }
+    
+    // writes a folder of stand-in sound files (a second of mono audio at half
+    // the engine's rate, so decoding has to convert them) for every pitch of
+    // every instrument
+    private static File standInSamples() throws IOException {
+        File root = Files.createTempDirectory("samples").toFile();
+        root.deleteOnExit();
+        AudioFormat format = new AudioFormat(
+            AudioEngine.SAMPLE_RATE / 2, 16, 1, true, false);
+        byte[] data = new byte[(int)format.getSampleRate() * 2];
+        for (int i = 0;i < data.length;i += 2) {
+            short value = (short)(8000 * Math.sin(i * 0.01));
+            data[i] = (byte)value;
+            data[i + 1] = (byte)(value >> 8);
+        }
+        for (Instrument instrument : Instrument.values()) {
+            if (instrument.patch != null) {
+                continue;
+            }
+            File folder = new File(root, instrument.instrumentName);
+            folder.mkdirs();
+            // files are deleted in the reverse order they're registered, so
+            // each folder is registered before what's in it
+            folder.deleteOnExit();
+            // one octave, like the real samples folder
+            for (int midi = Pitch.C4.MIDICode;midi <= Pitch.C5.MIDICode;midi++) {
+                File soundFile = instrument.fileOf(root, Pitch.fromMidi(midi));
+                AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data),
+                    format, data.length / 2), AudioFileFormat.Type.WAVE, soundFile);
+                soundFile.deleteOnExit();
+            }
+        }
+        new File(root, SampleBank.DEFAULT_NAME).deleteOnExit();
+        return root;
+    }
+    
+}
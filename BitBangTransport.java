@@ -0,0 +1,89 @@
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+
+/**
+ * An <code>SpiTransport</code> that drives SPI by hand, through four ordinary
+ * GPIO pins on the Raspberry Pi. This works on any pins, but is slow, since
+ * every bit takes several calls into Pi4J and a short wait. The clock idles
+ * LOW and bits are sampled while it is HIGH (SPI mode 0).
+ * <p>
+ * The waits are timed with <code>System.nanoTime</code>, rather than by
+ * counting through an empty loop, which the JIT is free to remove, and which
+ * takes a different time on every processor.
+ * 
+ * @see MCP3208
+ * @author Matthew Flynn
+ * @version February 15th, 2018
+ */
+public class BitBangTransport implements SpiTransport {
+    
+    // the MCP3208 needs at least 250ns between CLK changes (at 2.7V)
+    static final long HALF_CLOCK_NANOS = 250;
+    
+    // the pins for the SPI
+    private final GpioPinDigitalOutput chipSelectPin;
+    private final GpioPinDigitalOutput clockPin;
+    private final GpioPinDigitalOutput MOSIPin;
+    private final GpioPinDigitalInput MISOPin;
+    
+    /**
+     * Constructs a <code>BitBangTransport</code> using the specified pins on
+     * the Raspberry Pi (wiringPi numbering)
+     * 
+     * @param cs The pin that the Chip Select is connected to
+     * @param clk The pin that the Clock is connected to
+     * @param mosi The pin that the device's Digital In is connected to
+     * @param miso The pin that the device's Digital Out is connected to
+     */
+    public BitBangTransport(int cs, int clk, int mosi, int miso) {
+        chipSelectPin = MCP3208.getAndProvisionOutputPin(cs);
+        // begin the CS pin HIGH. LOW means that the device is selected
+        chipSelectPin.high();
+        clockPin = MCP3208.getAndProvisionOutputPin(clk);
+        MOSIPin = MCP3208.getAndProvisionOutputPin(mosi);
+        MISOPin = MCP3208.getAndProvisionInputPin(miso);
+    }
+    
+    @Override
+    public void transfer(byte[] buffer, int length) {
+        chipSelectPin.low();
+        for (int i = 0;i < length;i++) {
+            int out = buffer[i];
+            int in = 0;
+            for (int bit = 0;bit < 8;bit++) {
+                if ((out & 0x80) != 0) {
+                    MOSIPin.high();
+                } else {
+                    MOSIPin.low();
+                }
+                out <<= 1;
+                in <<= 1;
+                if (clockCycle()) {
+                    in |= 1;
+                }
+            }
+            buffer[i] = (byte)in;
+        }
+        chipSelectPin.high();
+    }
+    
+    // to send a bit, set the MOSI pin to the correct state, then call
+    // clockCycle(). It returns the bit received, read while the clock is HIGH
+    private boolean clockCycle() {
+        pause(HALF_CLOCK_NANOS);
+        clockPin.high();
+        pause(HALF_CLOCK_NANOS);
+        boolean ret = MISOPin.isHigh();
+        clockPin.low();
+        return ret;
+    }
+    
+    // waits for at least the given time. Far too short to sleep, so it spins
+    static void pause(long nanos) {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < nanos) {
+            // spin
+        }
+    }
+    
+}
@@ -0,0 +1,114 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size queue of <code>PulseEvent</code>s, passed from the thread that
+ * detects presses to the thread that plays them. Every event is preallocated
+ * and reused, so nothing is allocated and no locks are taken on either side.
+ * <p>
+ * Only one thread may call <code>offer</code>, and only one thread may call
+ * <code>drain</code>. If the queue is full, the new event is dropped and
+ * counted.
+ * 
+ * @see PulseEvent
+ * @author Matthew Flynn
+ * @version February 22nd, 2018
+ */
+public class EventQueue {
+    
+    /**
+     * Receives events as they're taken from an <code>EventQueue</code>
+     */
+    public interface Handler {
+        /**
+         * Handles one event. The event is reused once this returns
+         * 
+         * @param event the event
+         */
+        void onEvent(PulseEvent event);
+    }
+    
+    private final PulseEvent[] events;
+    // the capacity is a power of two, so a position is turned into an index
+    // by masking
+    private final int mask;
+    // the next position to read, and the next position to write
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // only written by the producer
+    private volatile long dropped;
+    
+    /**
+     * Constructs an <code>EventQueue</code>
+     * 
+     * @param capacity the number of events that can be held at once (rounded
+     * up to a power of two)
+     */
+    public EventQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity (" + capacity + ")");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        events = new PulseEvent[size];
+        for (int i = 0;i < size;i++) {
+            events[i] = new PulseEvent();
+        }
+        mask = size - 1;
+    }
+    
+    /**
+     * Adds an event to the queue. Only the producer thread may call this
+     * 
+     * @param type <code>PulseEvent.PRESS</code> or <code>PulseEvent.RELEASE
+     * </code>
+     * @param time when the event happened (<code>System.nanoTime</code>)
+     * @param sensor the sensor that the event happened to
+     * @param velocity how hard the sensor was pressed, from 0 to 1
+     * @return whether the event was added, or dropped because the queue was
+     * full
+     */
+    public boolean offer(int type, long time, PulseSensor sensor, float velocity) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped++;
+            return false;
+        }
+        PulseEvent event = events[(int)t & mask];
+        event.type = type;
+        event.time = time;
+        event.sensor = sensor;
+        event.velocity = velocity;
+        // publishes the event to the consumer
+        tail.lazySet(t + 1);
+        return true;
+    }
+    
+    /**
+     * Takes events off the queue and passes them to a handler, in the order
+     * they were added. Only the consumer thread may call this
+     * 
+     * @param handler the handler to pass the events to
+     * @param max the most events to take
+     * @return the number of events taken
+     */
+    public int drain(Handler handler, int max) {
+        long h = head.get();
+        int count = (int)Math.min(tail.get() - h, max);
+        for (int n = 0;n < count;n++) {
+            handler.onEvent(events[(int)(h + n) & mask]);
+        }
+        // frees the events for the producer
+        head.lazySet(h + count);
+        return count;
+    }
+    
+    /**
+     * @return the number of events dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+    
+}
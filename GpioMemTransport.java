@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An <code>SpiTransport</code> that drives SPI by hand, like a
+ * <code>BitBangTransport</code>, but writes the Raspberry Pi's GPIO
+ * registers directly instead of going through Pi4J. The register block is
+ * mapped into memory from <code>/dev/gpiomem</code>, so setting, clearing
+ * and reading pins is a single memory access each, with none of the objects,
+ * listeners or native calls behind every Pi4J pin change.
+ * <p>
+ * The registers used are the function selects (<code>GPFSEL</code>, to make
+ * the pins inputs or outputs), and the set, clear and level registers of
+ * bank 0 (<code>GPSET0</code>, <code>GPCLR0</code>, <code>GPLEV0</code>),
+ * which cover pins 0 to 31. Writing a 1 bit to the set or clear register
+ * changes that pin and leaves the others alone, so pins that change at the
+ * same moment are changed with one write: when the clock falls and the next
+ * bit to send is 0, the clock and MOSI are cleared together.
+ * <p>
+ * Pins are given in wiringPi numbering, like everywhere else in the program,
+ * and turned into the Broadcom numbers that the registers use. Anything can
+ * stand in for the register block, such as an ordinary file, which is how
+ * this can be tested off the Pi. If the registers can't be mapped, use
+ * <code>openOrBitBang</code> to fall back to Pi4J.
+ * 
+ * @see BitBangTransport
+ * @see MCP3208
+ * @author Matthew Flynn
+ * @version April 16th, 2018
+ */
+public class GpioMemTransport implements SpiTransport {
+    
+    /**
+     * The device that maps the GPIO registers, without needing root
+     */
+    public static final String GPIOMEM = "/dev/gpiomem";
+    
+    // the offsets of the registers, in bytes
+    private static final int GPFSEL0 = 0x00;
+    private static final int GPSET0 = 0x1C;
+    private static final int GPCLR0 = 0x28;
+    private static final int GPLEV0 = 0x34;
+    // the size of the register block that's mapped
+    private static final int BLOCK_SIZE = 4096;
+    // the Broadcom number of each wiringPi pin (on every board since the
+    // revision 2 Model B)
+    private static final int[] BCM_OF_WIRING_PI = {
+        17, 18, 27, 22, 23, 24, 25, 4, 2, 3, 8, 7, 10, 9, 11, 14,
+        15, 28, 29, 30, 31, 5, 6, 13, 19, 26, 12, 16, 20, 21, 0, 1
+    };
+    
+    private final MappedByteBuffer registers;
+    // the bit of each pin in the set, clear and level registers
+    private final int chipSelectMask;
+    private final int clockMask;
+    private final int MOSIMask;
+    private final int MISOMask;
+    
+    /**
+     * Constructs a <code>GpioMemTransport</code> using the specified pins on
+     * the Raspberry Pi (wiringPi numbering), through <code>/dev/gpiomem
+     * </code>
+     * 
+     * @param cs The pin that the Chip Select is connected to
+     * @param clk The pin that the Clock is connected to
+     * @param mosi The pin that the device's Digital In is connected to
+     * @param miso The pin that the device's Digital Out is connected to
+     * @throws IOException if the GPIO registers can't be mapped
+     */
+    public GpioMemTransport(int cs, int clk, int mosi, int miso) throws IOException {
+        this(new File(GPIOMEM), cs, clk, mosi, miso);
+    }
+    
+    /**
+     * Constructs a <code>GpioMemTransport</code> that uses the given file as
+     * its register block
+     * 
+     * @param registerFile the file to map the registers from
+     * @param cs The pin that the Chip Select is connected to
+     * @param clk The pin that the Clock is connected to
+     * @param mosi The pin that the device's Digital In is connected to
+     * @param miso The pin that the device's Digital Out is connected to
+     * @throws IOException if the file can't be mapped
+     */
+    public GpioMemTransport(File registerFile, int cs, int clk, int mosi, int miso)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(registerFile.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            registers = channel.map(FileChannel.MapMode.READ_WRITE, 0, BLOCK_SIZE);
+        }
+        // the registers are little-endian, like the Pi's processor
+        registers.order(ByteOrder.LITTLE_ENDIAN);
+        chipSelectMask = 1 << toBcm(cs);
+        clockMask = 1 << toBcm(clk);
+        MOSIMask = 1 << toBcm(mosi);
+        MISOMask = 1 << toBcm(miso);
+        setOutput(toBcm(cs), true);
+        setOutput(toBcm(clk), true);
+        setOutput(toBcm(mosi), true);
+        setOutput(toBcm(miso), false);
+        // begin the CS pin HIGH and the clock LOW. LOW means that the device
+        // is selected
+        registers.putInt(GPSET0, chipSelectMask);
+        registers.putInt(GPCLR0, clockMask);
+    }
+    
+    /**
+     * Maps the GPIO registers if possible, and otherwise falls back to
+     * driving the pins through Pi4J
+     * 
+     * @param cs The pin that the Chip Select is connected to
+     * @param clk The pin that the Clock is connected to
+     * @param mosi The pin that the device's Digital In is connected to
+     * @param miso The pin that the device's Digital Out is connected to
+     * @return the fastest transport that works
+     */
+    public static SpiTransport openOrBitBang(int cs, int clk, int mosi, int miso) {
+        try {
+            return new GpioMemTransport(cs, clk, mosi, miso);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Could not map " + GPIOMEM + ", using Pi4J: " + e);
+            return new BitBangTransport(cs, clk, mosi, miso);
+        }
+    }
+    
+    @Override
+    public void transfer(byte[] buffer, int length) {
+        registers.putInt(GPCLR0, chipSelectMask);
+        // the first bit goes out while the clock is still low
+        if (length > 0) {
+            registers.putInt((buffer[0] & 0x80) != 0 ? GPSET0 : GPCLR0, MOSIMask);
+        }
+        for (int i = 0;i < length;i++) {
+            int out = buffer[i];
+            int in = 0;
+            for (int bit = 0;bit < 8;bit++) {
+                in <<= 1;
+                // the MCP3208 needs at least 250ns between CLK changes
+                BitBangTransport.pause(BitBangTransport.HALF_CLOCK_NANOS);
+                registers.putInt(GPSET0, clockMask);
+                BitBangTransport.pause(BitBangTransport.HALF_CLOCK_NANOS);
+                if ((registers.getInt(GPLEV0) & MISOMask) != 0) {
+                    in |= 1;
+                }
+                // the clock falls, and the next bit goes out with it
+                boolean next = bit < 7 ? (out & 0x40) != 0
+                    : i + 1 < length && (buffer[i + 1] & 0x80) != 0;
+                if (next) {
+                    registers.putInt(GPCLR0, clockMask);
+                    registers.putInt(GPSET0, MOSIMask);
+                } else {
+                    registers.putInt(GPCLR0, clockMask | MOSIMask);
+                }
+                out <<= 1;
+            }
+            buffer[i] = (byte)in;
+        }
+        registers.putInt(GPSET0, chipSelectMask);
+    }
+    
+    // makes a pin an input or an output, leaving the other pins that share
+    // its function select register alone
+    private void setOutput(int bcm, boolean output) {
+        int offset = GPFSEL0 + 4 * (bcm / 10);
+        int shift = 3 * (bcm % 10);
+        int select = registers.getInt(offset) & ~(0b111 << shift);
+        registers.putInt(offset, output ? select | (0b001 << shift) : select);
+    }
+    
+    /**
+     * Turns a wiringPi pin number into the Broadcom number that the GPIO
+     * registers use
+     * 
+     * @param wiringPi the wiringPi pin number, 0 to 31
+     * @return the Broadcom pin number
+     */
+    public static int toBcm(int wiringPi) {
+        if (wiringPi < 0 || wiringPi >= BCM_OF_WIRING_PI.length) {
+            throw new IllegalArgumentException("Invalid wiringPi pin (" + wiringPi + ")");
+        }
+        return BCM_OF_WIRING_PI[wiringPi];
+    }
+    
+}
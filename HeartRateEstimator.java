@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+/**
+ * Estimates a heart rate from the readings of a pulse sensor, as they come
+ * in. Rather than transforming a window of readings, the estimator picks out
+ * each beat as it happens and keeps the intervals between the last few beats
+ * in a small ring, so every reading takes constant time and nothing is
+ * allocated.
+ * <p>
+ * Each reading is band-passed by taking the difference of a fast and a slow
+ * moving average, which removes both the resting level and the noise. A beat
+ * is the moment that this difference swings from well below zero to well
+ * above it. The weights of the moving averages are worked out from the time
+ * between readings, so the estimate doesn't depend on how often the sensor
+ * is read (the sampler slows down while idle). Intervals shorter than
+ * <code>MAX_BPM</code> allows are ignored, and a gap longer than
+ * <code>MIN_BPM</code> allows starts the estimate over.
+ * 
+ * @see PulseSensor
+ * @author Matthew Flynn
+ * @version March 1st, 2018
+ */
+public class HeartRateEstimator {
+    
+    /**
+     * The slowest heart rate that can be detected, in beats per minute
+     */
+    public static final int MIN_BPM = 40;
+    /**
+     * The fastest heart rate that can be detected, in beats per minute
+     */
+    public static final int MAX_BPM = 200;
+    
+    private static final long NANOS_PER_MINUTE = 60000000000L;
+    private static final long MIN_INTERVAL = NANOS_PER_MINUTE / MAX_BPM;
+    private static final long MAX_INTERVAL = NANOS_PER_MINUTE / MIN_BPM;
+    // the number of intervals that the estimate is based on
+    private static final int INTERVALS = 8;
+    // time constants of the two moving averages, in nanoseconds
+    private static final long FAST_NANOS = 50000000L;
+    private static final long SLOW_NANOS = 1500000000L;
+    // the signal must swing this far past zero, as a fraction of its average
+    // size, to count as a beat
+    private static final float HYSTERESIS = 0.5f;
+    
+    private float fast;
+    private float slow;
+    // the average size of the band-passed signal
+    private float amplitude;
+    private boolean primed;
+    // whether the signal has been low enough for the next rise to be a beat
+    private boolean armed;
+    
+    // the intervals between recent beats, in nanoseconds
+    private final long[] intervals = new long[INTERVALS];
+    private int next;
+    private int count;
+    private long sum;
+    private long lastBeat;
+    // when the moving averages were last updated
+    private long lastReading;
+    
+    // the estimate, which may be read from other threads
+    private volatile float bpm;
+    private volatile float confidence;
+    
+    /**
+     * Adds a reading to the estimate
+     * 
+     * @param time when the reading was taken (<code>System.nanoTime</code>)
+     * @param value the reading
+     */
+    public void update(long time, int value) {
+        if (count > 0 && time - lastBeat > MAX_INTERVAL) {
+            // no beat for too long, so the estimate no longer holds
+            forgetIntervals();
+        }
+        if (!primed) {
+            fast = value;
+            slow = value;
+            lastReading = time;
+            primed = true;
+            return;
+        }
+        long gap = Math.max(0, time - lastReading);
+        lastReading = time;
+        // close to 1 - e^(-gap / time constant), without the exponential
+        float fastAlpha = gap / (float)(FAST_NANOS + gap);
+        float slowAlpha = gap / (float)(SLOW_NANOS + gap);
+        fast += fastAlpha * (value - fast);
+        slow += slowAlpha * (value - slow);
+        float signal = fast - slow;
+        amplitude += slowAlpha * (Math.abs(signal) - amplitude);
+        float limit = HYSTERESIS * amplitude;
+        if (!armed) {
+            armed = signal < -limit;
+        } else if (signal > limit) {
+            armed = false;
+            beat(time);
+        }
+    }
+    
+    /**
+     * Forgets every reading and beat, as if the estimator were new
+     */
+    public void reset() {
+        primed = false;
+        armed = false;
+        amplitude = 0;
+        forgetIntervals();
+        lastBeat = 0;
+    }
+    
+    // forgets the intervals between beats, and the estimate made from them.
+    // The ring starts again from its first slot, so that no stale interval
+    // is counted
+    private void forgetIntervals() {
+        Arrays.fill(intervals, 0);
+        next = 0;
+        count = 0;
+        sum = 0;
+        bpm = 0;
+        confidence = 0;
+    }
+    
+    // records a beat, and updates the estimate from the recent intervals
+    private void beat(long time) {
+        long interval = time - lastBeat;
+        if (lastBeat != 0 && interval < MIN_INTERVAL) {
+            // too soon after the last beat to be real
+            return;
+        }
+        lastBeat = time;
+        if (interval > MAX_INTERVAL) {
+            // lost track of the heart beat, so start over
+            forgetIntervals();
+            return;
+        }
+        if (count == INTERVALS) {
+            sum -= intervals[next];
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        sum += interval;
+        next = (next + 1) % INTERVALS;
+        if (count < 2) {
+            return;
+        }
+        // the more regular the intervals, and the more of them there are, the
+        // more confident the estimate
+        float mean = (float)sum / count;
+        float variance = 0;
+        for (int i = 0;i < count;i++) {
+            float diff = intervals[i] - mean;
+            variance += diff * diff;
+        }
+        float spread = (float)Math.sqrt(variance / count) / mean;
+        bpm = NANOS_PER_MINUTE / mean;
+        confidence = Math.max(0f, 1f - 2f * spread) * count / INTERVALS;
+    }
+    
+    /**
+     * @return the current heart rate in beats per minute, or 0 if there isn't
+     * one (not enough beats yet, or none for too long). This may be called
+     * from any thread
+     */
+    public float getBpm() {
+        return bpm;
+    }
+    
+    /**
+     * @return how much the current heart rate can be trusted, from 0 (not at
+     * all) to 1 (a full set of perfectly regular beats). This may be called
+     * from any thread
+     */
+    public float getConfidence() {
+        return confidence;
+    }
+    
+}
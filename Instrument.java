@@ -1,55 +1,280 @@
 import java.io.File;
 import java.io.IOException;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An enum representing all the different instruments that can be played in
  * this project. Each instrument handles the loading and storage of its own
  * sound files. To add a new instrument, all you must do is add a new instance
  * of the enum, and specify the folder in which the sound files are located
+ * (and the General MIDI program to use when notes are played as MIDI)
+ * <p>
+ * An instrument can also be synthesized, from a <code>SynthPatch</code>,
+ * instead of played from sound files. It has no files to load, and its notes
+ * are rendered by the engine as they play. It can still be used anywhere
+ * else: <code>getSound</code> renders its notes into samples.
+ * <p>
+ * An instrument played from sound files doesn't need a file for every pitch.
+ * Every pitch that has a file is a root, played from its own file, and any
+ * other pitch is played by shifting the nearest root up or down (see
+ * <code>rootOf</code>). So the memory taken by an instrument depends only on
+ * how many files it has, not on how many pitches are played.
+ * <p>
+ * The sounds of every instrument are held in one shared <code>SampleCache
+ * </code>, which keeps the decoded sound files under a memory budget. Sound
+ * files are loaded the first time they're needed, unless <code>preloadAll
+ * </code> is called at startup, in which case every sound file of every
+ * instrument is decoded up front, in parallel, and no press ever has to wait
+ * for a file to load. Even faster, <code>useBank</code> serves every sound
+ * straight from a memory-mapped <code>SampleBank</code>.
  * 
+ * @see Sample
+ * @see SampleBank
+ * @see SampleCache
+ * @see SynthPatch
  * @author Matthew Flynn
- * @version January 25th, 2018
+ * @version February 10th, 2018
  */
 public enum Instrument {
     
-    PIANO("piano"), BASS("bass");
+    PIANO("piano", 0), BASS("bass", 33),
+    ORGAN("organ", 16, SynthPatch.ORGAN), FLUTE("flute", 73, SynthPatch.FLUTE);
     
     /**
      * The name of the instrument that this instance plays. Also the name of the
      * foler which contains the audio samples for this instrument
      */
     public final String instrumentName;
-    // privately stores the sound files in a playable format
-    private final Clip[] SOUNDS = new Clip[Pitch.values().length];
+    /**
+     * The General MIDI program that sounds most like this instrument, for
+     * when notes are played as MIDI
+     */
+    public final int midiProgram;
+    /**
+     * The sound of this instrument if it's synthesized, or null if it's
+     * played from sound files
+     */
+    public final SynthPatch patch;
+    // the number of sounds that had to be loaded when they were requested,
+    // and the total time spent loading them
+    private final AtomicLong lazyLoads = new AtomicLong();
+    private final AtomicLong lazyLoadNanos = new AtomicLong();
+    // the root of each pitch, as its MIDI code + 1, or 0 if it hasn't been
+    // worked out yet (see findRoots)
+    private final AtomicIntegerArray roots =
+        new AtomicIntegerArray(Pitch.values().length);
+    // how long the last call to preloadAll took
+    private static volatile long preloadNanos;
+    // holds the decoded sounds of every instrument. Created when it's first
+    // needed, unless one is set first
+    private static volatile SampleCache cache;
     /**
      * The absolute path to the folder which contains the audio files
      */
     public static final String ALL_SAMPLES ="/home/pi/Documents/flynn/SoundsWithPulse/samples";
     
     /**
-     * Gets the audio file for the pitch given as a <code>Clip</code> object.
+     * Gets the audio file for the pitch given as a <code>Sample</code> object.
      * This method's speed may vary. If the audio file requested is already
-     * loaded, then it will be fast.  If the audio file needs to be loaded, it
-     * may take a bit more time, but then that audio file will be saved by the
-     * program, so that any subsequent calls for that note will be fast.
+     * loaded, then it will be fast.  If the audio file needs to be loaded, this
+     * waits for it, but then that audio file will be kept in the cache, so
+     * that any subsequent calls for that note will be fast. Anything that
+     * can't wait (like the thread that plays notes) should use the cache's
+     * <code>get</code> instead
+     * <p>
+     * Only a root has a sound of its own. To play any other pitch, get the
+     * sound of its root (<code>getSound(rootOf(p))</code>) and shift it
      * 
-     * @param p The pitch of the audio file to be returned
-     * @return A <code>Clip</code> of a note of the given pitch
+     * @param p The pitch of the audio file to be returned, which must be a
+     * root
+     * @return A <code>Sample</code> of a note of the given pitch
+     * @throws UncheckedIOException if the audio file could not be loaded (such
+     * as when the pitch has no sound file, so isn't a root)
      */
-    public Clip getSound(Pitch p) {
+    public Sample getSound(Pitch p) {
         // check if the sound file has already been loaded.  If so, return it
-        if (SOUNDS[p.ordinal()] != null) {
-            return SOUNDS[p.ordinal()];
+        SampleCache sounds = getCache();
+        Sample ret = sounds.get(this, p);
+        if (ret != null) {
+            return ret;
+        }
+        long start = System.nanoTime();
+        try {
+            ret = sounds.load(this, p).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException)e.getCause());
+            }
+            throw e;
+        } finally {
+            lazyLoads.incrementAndGet();
+            lazyLoadNanos.addAndGet(System.nanoTime() - start);
+        }
+        return ret;
+    }
+    
+    /**
+     * Finds the pitch whose sound is played, shifted, for a given pitch: the
+     * nearest root that has a sound file. The roots are worked out by
+     * <code>findRoots</code>, so this only looks them up, and is safe to call
+     * from the thread that plays notes
+     * 
+     * @param p the pitch to be played
+     * @return the root to play it from (the pitch itself for a synthesized
+     * instrument, if no root has a sound file, or if the roots haven't been
+     * worked out yet)
+     */
+    public Pitch rootOf(Pitch p) {
+        int found = roots.get(p.ordinal());
+        if (found == 0) {
+            return p;
+        }
+        return Pitch.fromMidi(found - 1);
+    }
+    
+    /**
+     * Works out the root of every pitch of every instrument played from sound
+     * files (see <code>rootOf</code>). This looks for every sound file, so it
+     * is slow, and is done once, before anything is played.
+     * <code>preloadAll</code> and <code>useBank</code> both call it, so it
+     * only needs to be called if neither is
+     */
+    public static void findRoots() {
+        for (Instrument instrument : values()) {
+            if (instrument.patch == null) {
+                instrument.findOwnRoots();
+            }
+        }
+    }
+    
+    /**
+     * Loads the sound file of every root of every instrument played from
+     * sound files, so that no call to <code>getSound</code> for a root will
+     * ever have to wait for a file to load (as long as they all fit in the
+     * cache's budget). The files are decoded in parallel, by the cache's
+     * loader threads. Sound files that can't be loaded are skipped (and will
+     * be tried again if they're requested with <code>getSound</code>).
+     * 
+     * @return how long it took to load the files, in nanoseconds
+     */
+    public static long preloadAll() {
+        long start = System.nanoTime();
+        SampleCache sounds = getCache();
+        List<CompletableFuture<Sample>> loads = new ArrayList<>();
+        for (Instrument instrument : values()) {
+            // synthesized instruments have nothing to load
+            if (instrument.patch != null) {
+                continue;
+            }
+            for (Pitch p : Pitch.values()) {
+                if (instrument.getFile(p).isFile()) {
+                    loads.add(sounds.load(instrument, p).exceptionally(e -> null));
+                }
+            }
+        }
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+        findRoots();
+        preloadNanos = System.nanoTime() - start;
+        return preloadNanos;
+    }
+    
+    /**
+     * Makes every instrument serve its sounds from a sample bank. Sounds that
+     * the bank doesn't have are still loaded from their files as usual
+     * 
+     * @param bank the bank to take the sounds from
+     * @return the number of sounds taken from the bank
+     */
+    public static int useBank(SampleBank bank) {
+        int ret = 0;
+        for (Instrument instrument : values()) {
+            for (Pitch p : Pitch.values()) {
+                Sample sound = bank.getSample(instrument, p);
+                if (sound != null) {
+                    getCache().put(instrument, p, sound);
+                    ret++;
+                }
+            }
+        }
+        findRoots();
+        return ret;
+    }
+    
+    /**
+     * Sets the cache that holds the sounds of every instrument. Call this
+     * before any sound is loaded, to give the cache a different budget
+     * 
+     * @param sounds the cache
+     */
+    public static void setCache(SampleCache sounds) {
+        cache = sounds;
+    }
+    
+    /**
+     * @return the cache that holds the sounds of every instrument (one with
+     * the default budget, and a loader thread per processor, unless another
+     * was set)
+     */
+    public static SampleCache getCache() {
+        SampleCache ret = cache;
+        if (ret == null) {
+            synchronized (Instrument.class) {
+                if (cache == null) {
+                    cache = new SampleCache(SampleCache.DEFAULT_BUDGET,
+                        Runtime.getRuntime().availableProcessors());
+                }
+                ret = cache;
+            }
         }
-        Clip ret = loadSoundFile(new File(filenameOf(p)));
-        SOUNDS[p.ordinal()] = ret;
         return ret;
-    }                       
+    }
+    
+    /**
+     * @return how long the last call to <code>preloadAll</code> took, in
+     * nanoseconds (0 if it hasn't been called)
+     */
+    public static long getPreloadNanos() {
+        return preloadNanos;
+    }
+    
+    /**
+     * @return the total size of the decoded audio held by every instrument,
+     * in bytes (sounds served from a sample bank aren't counted)
+     */
+    public static long getTotalResidentBytes() {
+        return getCache().getResidentBytes();
+    }
+    
+    /**
+     * @return the total size of the decoded audio held by this instrument, in
+     * bytes (sounds served from a sample bank aren't counted)
+     */
+    public long getResidentBytes() {
+        return getCache().getResidentBytes(this);
+    }
+    
+    /**
+     * @return the number of times <code>getSound</code> had to load a file
+     * before it could return. After <code>preloadAll</code>, this should stay
+     * at 0
+     */
+    public long getLazyLoads() {
+        return lazyLoads.get();
+    }
+    
+    /**
+     * @return the total time that calls to <code>getSound</code> have spent
+     * waiting for files to load, in nanoseconds
+     */
+    public long getLazyLoadNanos() {
+        return lazyLoadNanos.get();
+    }
     
     // Overriding this method allows the returned String to be a little more
     // user friendly
@@ -63,40 +288,57 @@ public enum Instrument {
         return ALL_SAMPLES +"/"+ instrumentName +"/"+ p.toString() + ".wav";
     }
     
+    // gets the sound file of the given pitch
+    File getFile(Pitch p) {
+        return new File(filenameOf(p));
+    }
+    
+    // gets the sound file of the given pitch, in a different samples folder
+    File fileOf(File samplesDir, Pitch p) {
+        return new File(new File(samplesDir, instrumentName), p.toString() + ".wav");
+    }
+    
     // private constructor
-    private Instrument(String folderName) {
-        instrumentName = folderName;
+    private Instrument(String folderName, int program) {
+        this(folderName, program, null);
     }
     
-    // loads the specified sound file and returns it as a Clip object
-    private static Clip loadSoundFile(File soundFile) {
-        AudioInputStream inStream = null;
-        Clip clip;
-        // get the input stream from the given file
-        try {
-            inStream = AudioSystem.getAudioInputStream(soundFile);
-        } catch (IOException | UnsupportedAudioFileException e) {
-            return null;
-        }
-        // get a line for the output of the audio
-        try {
-            clip = AudioSystem.getClip();
-        } catch (LineUnavailableException e) {
-            return null;
-        }
-        // open the clip, and give it the audio to play
-        try {
-            clip.open(inStream);
-        } catch (IOException | LineUnavailableException e) {
-            return null;
+    // private constructor for a synthesized instrument
+    private Instrument(String name, int program, SynthPatch patch) {
+        instrumentName = name;
+        midiProgram = program;
+        this.patch = patch;
+    }
+    
+    // whether the pitch with the given MIDI code has a sound, or a file to
+    // load it from
+    private boolean hasSound(int midi) {
+        Pitch p = Pitch.fromMidi(midi);
+        return getCache().contains(this, p) || getFile(p).isFile();
+    }
+    
+    // sets the root of each pitch to the nearest pitch that has a sound
+    private void findOwnRoots() {
+        int count = Pitch.values().length;
+        boolean[] has = new boolean[count];
+        for (int midi = 0;midi < count;midi++) {
+            has[midi] = hasSound(midi);
         }
-        // close the InputStream
-        try {
-            inStream.close();
-        } catch (IOException e) {
-            return null;
+        for (int midi = 0;midi < count;midi++) {
+            int root = midi;
+            // try every pitch, nearest first (the lower one on a tie)
+            for (int distance = 0;distance < count;distance++) {
+                if (midi - distance >= 0 && has[midi - distance]) {
+                    root = midi - distance;
+                    break;
+                }
+                if (midi + distance < count && has[midi + distance]) {
+                    root = midi + distance;
+                    break;
+                }
+            }
+            roots.set(midi, root + 1);
         }
-        return clip;
     }
     
 }
@@ -0,0 +1,129 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, with one bucket per power of two nanoseconds.
+ * Recording a latency takes a handful of atomic operations, with no locks and
+ * no allocation, so it's cheap enough for the hot paths of the program, and
+ * any thread can record while any other reads.
+ * <p>
+ * Percentiles are only as precise as the buckets: they're reported as the
+ * upper bound of the bucket they fall in, so they may be up to twice the
+ * true value.
+ * 
+ * @see Metrics
+ * @author Matthew Flynn
+ * @version March 8th, 2018
+ */
+public class LatencyHistogram {
+    
+    // bucket b holds latencies from 2^(b-1) up to 2^b - 1 nanoseconds, and
+    // the last bucket holds everything longer (over 2 minutes)
+    private static final int BUCKETS = 38;
+    
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Constructs an empty <code>LatencyHistogram</code>
+     * 
+     * @param name what the latencies are of
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Records one latency
+     * 
+     * @param nanos the latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {}
+    }
+    
+    /**
+     * @return what the latencies are of
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+    
+    /**
+     * @return the mean of the latencies recorded, in nanoseconds
+     */
+    public long getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+    
+    /**
+     * @return the longest latency recorded, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+    
+    /**
+     * @return the median latency, in nanoseconds (as the upper bound of its
+     * bucket)
+     */
+    public long getP50Nanos() {
+        return percentile(0.5);
+    }
+    
+    /**
+     * @return the 99th percentile latency, in nanoseconds (as the upper bound
+     * of its bucket)
+     */
+    public long getP99Nanos() {
+        return percentile(0.99);
+    }
+    
+    // finds the bucket that holds the given fraction of the latencies below
+    // it, and returns its upper bound (but never more than the maximum)
+    private long percentile(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long)Math.ceil(fraction * n);
+        long seen = 0;
+        for (int b = 0;b < BUCKETS;b++) {
+            seen += buckets.get(b);
+            if (seen >= target) {
+                return Math.min((1L << b) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%-16s n=%-9d mean=%-9s p50<=%-9s p99<=%-9s max=%s",
+            name, getCount(), micros(getMeanNanos()), micros(getP50Nanos()),
+            micros(getP99Nanos()), micros(getMaxNanos()));
+    }
+    
+    private static String micros(long nanos) {
+        return nanos / 1000 + "us";
+    }
+    
+}
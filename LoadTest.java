@@ -0,0 +1,158 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the whole program against simulated hardware, to find out how many
+ * sensors it can keep up with. Every sensor is a <code>PulseSignal</code> on
+ * a <code>SimulatedMCP3208</code>, all sharing one bus, and they're read,
+ * filtered and checked for presses exactly as real ones would be. Every
+ * press is played on the synthesized organ (so no sound files are needed),
+ * by an <code>AudioEngine</code> that is rendered in real time but not
+ * written to a line (so no audio device is needed either).
+ * <p>
+ * After the run, it compares what was asked for with what happened: the
+ * readings per second each sensor got against the sample rate, and the
+ * presses detected and notes started against the presses simulated. Where
+ * these part ways as the number of sensors goes up is where the program
+ * stops scaling. The metrics summary, with the latency of every stage and
+ * the CPU used, is printed as well.
+ * 
+ * @see SimulatedMCP3208
+ * @see SoundPlayer
+ * @author Matthew Flynn
+ * @version April 12th, 2018
+ */
+public class LoadTest {
+    
+    /**
+     * Runs a load test. These arguments are understood:
+     * <ul>
+     * <li><code>--sensors N</code>: the number of simulated sensors (256 by
+     * default), 8 to each simulated MCP3208</li>
+     * <li><code>--seconds N</code>: how long to run for (10 by default)</li>
+     * <li><code>--rate N</code>: the number of times per second to read every
+     * sensor</li>
+     * <li><code>--clock-nanos N</code>: how long each clock of the bus takes
+     * (0 by default, for as fast as possible)</li>
+     * <li><code>--press-seconds N</code>: the average time between presses
+     * of each sensor (3 by default)</li>
+     * <li><code>--raw</code>: don't filter the readings</li>
+     * </ul>
+     * 
+     * @param args the arguments
+     * @throws InterruptedException if interrupted while the test runs
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int sensorCount = 256;
+        int seconds = 10;
+        int rate = SoundPlayer.DEFAULT_SAMPLE_RATE;
+        long clockNanos = 0;
+        double pressSeconds = PulseSignal.DEFAULT_PRESS_SECONDS;
+        boolean raw = false;
+        for (int i = 0;i < args.length;i++) {
+            switch (args[i]) {
+            case "--sensors":
+                sensorCount = Integer.parseInt(args[++i]);
+                break;
+            case "--seconds":
+                seconds = Integer.parseInt(args[++i]);
+                break;
+            case "--rate":
+                rate = Integer.parseInt(args[++i]);
+                break;
+            case "--clock-nanos":
+                clockNanos = Long.parseLong(args[++i]);
+                break;
+            case "--press-seconds":
+                pressSeconds = Double.parseDouble(args[++i]);
+                break;
+            case "--raw":
+                raw = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        // the hardware
+        SimulatedMCP3208[] sims = new SimulatedMCP3208[
+            (sensorCount + MCP3208.CHANNELS - 1) / MCP3208.CHANNELS];
+        MCP3208[] chips = new MCP3208[sims.length];
+        for (int i = 0;i < sims.length;i++) {
+            sims[i] = new SimulatedMCP3208((long)i * MCP3208.CHANNELS);
+            sims[i].setClockNanos(clockNanos);
+            for (int ch = 0;ch < MCP3208.CHANNELS;ch++) {
+                sims[i].getSignal(ch).setPressInterval(pressSeconds);
+            }
+            chips[i] = new MCP3208(sims[i]);
+        }
+        PulseSensor[] sensors = SoundPlayer.sequentialSensors(sensorCount,
+            new MCP3208Bus(chips));
+        // the sound
+        AudioEngine engine = new AudioEngine();
+        SampleOutput samples = new SampleOutput(engine);
+        SoundPlayer.setNoteOutput(new NoteOutput() {
+            @Override
+            public void noteOn(Instrument instrument, Pitch p, float velocity, long time) {
+                samples.noteOn(Instrument.ORGAN, p, velocity, time);
+            }
+            
+            @Override
+            public void noteOff(Instrument instrument, Pitch p, long time) {
+                samples.noteOff(Instrument.ORGAN, p, time);
+            }
+            
+            @Override
+            public void close() {
+                samples.close();
+            }
+        });
+        Thread audio = new Thread(() -> renderInRealTime(engine), "audio");
+        audio.setDaemon(true);
+        audio.start();
+        // the program
+        SoundPlayer player = new SoundPlayer(rate, sensors);
+        player.setFiltered(!raw);
+        Thread detection = new Thread(player::start, "detection");
+        detection.setDaemon(true);
+        long start = System.nanoTime();
+        detection.start();
+        // start the metrics' rates from here, so the summary covers the run
+        Metrics.summary();
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.nanoTime() - start;
+        long conversions = 0;
+        long simulated = 0;
+        for (SimulatedMCP3208 sim : sims) {
+            conversions += sim.getConversions();
+            for (int ch = 0;ch < MCP3208.CHANNELS;ch++) {
+                simulated += sim.getSignal(ch).getPresses();
+            }
+        }
+        long detected = 0;
+        for (PulseSensor sensor : sensors) {
+            detected += sensor.getTriggerCount();
+        }
+        double perSensor = conversions * 1e9 / elapsed / sensors.length;
+        System.out.println(Metrics.summary());
+        System.out.printf("%d sensors on %d chips: %.0f of %d readings/s per sensor (%.0f%%), "
+            + "%d presses simulated, %d detected, %d notes started, %d dropped%n",
+            sensors.length, sims.length, perSensor, rate, 100 * perSensor / rate,
+            simulated, detected, Metrics.PRESS_TO_SOUND.getCount(),
+            engine.getDroppedNotes());
+        System.exit(0);
+    }
+    
+    // renders the engine one period at a time, at the pace a line would take
+    // the audio, throwing the audio away
+    private static void renderInRealTime(AudioEngine engine) {
+        long due = System.nanoTime();
+        while (true) {
+            engine.render();
+            due += engine.getPeriodNanos();
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+    
+}
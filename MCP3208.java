@@ -12,19 +12,51 @@ import java.util.Collection;
 /**
  * A class to represent a physical MCP3208 connected to a Raspberry Pi. The
  * MCP3208 is an A/D converter with 8 channels that utilizes SPI to communicate
- * with microcontrollers. The SPI is implemented in this class privately, any
- * clients of this class do not have to deal with it directly.
+ * with microcontrollers. This class handles what is said over SPI, and leaves
+ * how it's said to an <code>SpiTransport</code>: bit-banged GPIO pins, the
+ * Pi's hardware SPI, or a stand-in for testing. Any clients of this class do
+ * not have to deal with SPI directly.
+ * <p>
+ * Each conversion is one 3 byte frame. The request holds 5 leading zeros, the
+ * start bit, the single-ended bit and the 3 channel bits; the 12-bit result
+ * comes back in the low 4 bits of the second byte and all of the third.
+ * <p>
+ * Channels can be read one at a time with <code>read</code>, or several at
+ * once with <code>scan</code>, which reads a set of channels back-to-back into
+ * a buffer supplied by the caller, and records when the scan happened.
+ * <p>
+ * Several MCP3208s can share the clock and data pins, each with its own Chip
+ * Select pin. See <code>MCP3208Bus</code>.
  * 
+ * @see SpiTransport
+ * @see MCP3208Bus
  * @author Matthew Flynn
- * @version January 24th, 2018
+ * @version February 15th, 2018
  */
 public class MCP3208 {
     
-    // the pins for the SPI
-    private final GpioPinDigitalOutput chipSelectPin;
-    private final GpioPinDigitalOutput clockPin;
-    private final GpioPinDigitalOutput MOSIPin;
-    private final GpioPinDigitalInput MISOPin;
+    /**
+     * The number of channels on the MCP3208
+     */
+    public static final int CHANNELS = 8;
+    /**
+     * A channel mask that selects all 8 channels
+     */
+    public static final int ALL_CHANNELS = 0xFF;
+    
+    // the number of bytes in one conversion
+    static final int FRAME_SIZE = 3;
+    
+    // how the bytes get to the physical MCP3208
+    private final SpiTransport transport;
+    // the frame being exchanged. Reused by every conversion
+    private final byte[] frame = new byte[FRAME_SIZE];
+    
+    // when the last scan started and ended (System.nanoTime), and how many
+    // scans have been done
+    private long scanStart;
+    private long scanEnd;
+    private long scanCount;
     
     // maps integers to pins
     private static final Pin[] pinMap = new Pin[] {RaspiPin.GPIO_00,
@@ -45,14 +77,23 @@ public class MCP3208 {
      * @param clk The pin that the Clock is connected to
      * @param dIn The pin that the Digital In is connected to
      * @param dOut The pin that the Digital Out is connected to
+     * 
+     * @see BitBangTransport
      */
     public MCP3208(int cs, int clk, int dOut, int dIn) {
-        chipSelectPin = getAndProvisionOutputPin(cs);
-        // beign the CS pin HIGH. LOW means that it should start converting
-        chipSelectPin.high();
-        clockPin = getAndProvisionOutputPin(clk);
-        MOSIPin = getAndProvisionOutputPin(dIn);
-        MISOPin = getAndProvisionInputPin(dOut);
+        this(new BitBangTransport(cs, clk, dIn, dOut));
+    }
+    
+    /**
+     * Constructs a MCP3208 object that communicates through the given
+     * transport
+     * 
+     * @param transport the SPI transport that the MCP3208 is reached through
+     * 
+     * @see SpiDeviceTransport
+     */
+    public MCP3208(SpiTransport transport) {
+        this.transport = transport;
     }
     
     /**
@@ -66,47 +107,111 @@ public class MCP3208 {
         if (channel > 7 || channel < 0) {
             throw new IllegalArgumentException("The requested channel (channel " + channel + ") does not exist.");
         }
-        // WRITE START BIT
-        // the first HIGH after CS LOW is interpreted as the start bit
-        chipSelectPin.low();
-        MOSIPin.high();
-        clockCycle();
-        // WRITE INPUT CONFIG (4 bits)
-        byte command = 0b00001000;
-        command |= channel;
-        for (int i = 0;i < 4;i++) {
-            if ((command & 0b00001000) != 0) {
-                MOSIPin.high();
-            } else {
-                MOSIPin.low();
-            }
-            clockCycle();
-            command <<= 1;
+        return convert(channel);
+    }
+    
+    /**
+     * Reads all 8 channels back-to-back. Reading a value from
+     * <code>out</code> right after the scan is much cheaper than calling
+     * <code>read</code> for every channel.
+     * 
+     * @param out the buffer to store the results in, indexed by channel (must
+     * have room for at least 8 values)
+     * @return the number of channels read
+     */
+    public int scan(short[] out) {
+        return scan(ALL_CHANNELS, out);
+    }
+    
+    /**
+     * Reads a set of channels back-to-back. Channels that aren't in the set
+     * are left untouched in <code>out</code>. Nothing is allocated, and the
+     * channels are only checked once, for the whole scan.
+     * 
+     * @param channelMask the channels to read, as a bit mask (bit 0 selects
+     * channel 0, and so on)
+     * @param out the buffer to store the results in, indexed by channel (must
+     * have room for the highest channel in the mask)
+     * @return the number of channels read
+     */
+    public int scan(int channelMask, short[] out) {
+        if ((channelMask & ~ALL_CHANNELS) != 0) {
+            throw new IllegalArgumentException("The channel mask " + Integer.toBinaryString(channelMask) + " selects channels that do not exist.");
+        }
+        if (out.length < 32 - Integer.numberOfLeadingZeros(channelMask)) {
+            throw new IllegalArgumentException("The buffer is too small for the channel mask " + Integer.toBinaryString(channelMask) + ".");
         }
-        // RECIEVE CONVERSTION DATA (12 bits + 2 null bits)
-        clockCycle();
-        short result = 0;
-        for (int i = 0;i < 12;i++) {
-            clockCycle();
-            if (MISOPin.isHigh()) {
-                result |= 1;
+        scanStart = System.nanoTime();
+        int count = 0;
+        for (int channel = 0;channel < CHANNELS;channel++) {
+            if ((channelMask & (1 << channel)) != 0) {
+                out[channel] = convert(channel);
+                count++;
             }
-            result <<= 1;
         }
-        result >>= 1;
-        chipSelectPin.high();
-        return result;
+        scanEnd = System.nanoTime();
+        scanCount++;
+        return count;
+    }
+    
+    /**
+     * @return when the last scan started (as given by <code>System.nanoTime
+     * </code>)
+     */
+    public long getScanStart() {
+        return scanStart;
+    }
+    
+    /**
+     * @return when the last scan finished (as given by <code>System.nanoTime
+     * </code>)
+     */
+    public long getScanEnd() {
+        return scanEnd;
+    }
+    
+    /**
+     * @return the number of scans that have been done
+     */
+    public long getScanCount() {
+        return scanCount;
+    }
+    
+    // does one conversion on the physical MCP3208. The channel isn't checked
+    private short convert(int channel) {
+        encodeRequest(channel, frame);
+        transport.transfer(frame, FRAME_SIZE);
+        return decodeResponse(frame);
+    }
+    
+    // fills a frame with a request to convert the given channel: 5 zeros, the
+    // start bit, the single-ended bit, then the channel (D2 D1 D0)
+    static void encodeRequest(int channel, byte[] frame) {
+        frame[0] = (byte)(0b00000110 | (channel >> 2));
+        frame[1] = (byte)((channel & 0b011) << 6);
+        frame[2] = 0;
+    }
+    
+    // gets the result of a conversion from the frame that was received
+    static short decodeResponse(byte[] frame) {
+        return (short)(((frame[1] & 0x0F) << 8) | (frame[2] & 0xFF));
+    }
+    
+    // gets the channel that a request frame asks for, or -1 if the frame
+    // isn't a well-formed single-ended request. Used by stand-ins for the chip
+    static int decodeRequest(byte[] frame) {
+        if ((frame[0] & 0b11111110) != 0b00000110 || (frame[1] & 0b00111111) != 0) {
+            return -1;
+        }
+        return ((frame[0] & 1) << 2) | ((frame[1] >> 6) & 0b011);
     }
     
-    // to send a bit, set a pin to the correct state, then call clockCycle()
-    // To recieve a bit, call clockCycle() and then check the state of a pin
-    private void clockCycle() {
-        // the MCP3208 needs at least 250ns between CLK changes. 100 iterations
-        // is plenty for this
-        for (int i = 0;i < 100;i++) {}
-        clockPin.high();
-        for (int i = 0;i < 100;i++) {}
-        clockPin.low();
+    // fills a frame with the response to a conversion: the null bit, then
+    // the 12-bit result. A stand-in for the chip uses this
+    static void encodeResponse(short value, byte[] frame) {
+        frame[0] = 0;
+        frame[1] = (byte)((value >> 8) & 0x0F);
+        frame[2] = (byte)value;
     }
     
     /**
@@ -143,7 +248,22 @@ public class MCP3208 {
      */
     public static GpioPinDigitalOutput getAndProvisionOutputPin(int num) {
         GpioController controller = GpioFactory.getInstance();
-        return controller.provisionDigitalOutputPin(pinMap[num], PinState.LOW);
+        // check to see if the desired pin is already provisioned, as it is
+        // when several MCP3208s share a bus
+        Collection<GpioPin> existingPins = controller.getProvisionedPins();
+        Pin desiredPin = pinMap[num];
+        GpioPinDigitalOutput ret = null;
+        for (GpioPin i : existingPins) {
+            // if the pin has been found to already be provisioned, use it
+            if (i.getPin() == desiredPin) {
+                ret = (GpioPinDigitalOutput)i;
+            }
+        }
+        // if the pin hasn't yet been provisioned, then provision it
+        if (ret == null) {
+            ret = controller.provisionDigitalOutputPin(pinMap[num], PinState.LOW);
+        }
+        return ret;
     }
     
 }
\ No newline at end of file
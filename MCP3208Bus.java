@@ -0,0 +1,137 @@
+/**
+ * A set of MCP3208s that share one SPI bus. The chips share the clock, Digital
+ * In and Digital Out lines, and each has its own Chip Select pin. A chip only
+ * drives Digital Out while it's selected, so any number of them can be wired
+ * together this way, and only one extra pin is needed for every 8 more
+ * channels.
+ * <p>
+ * The channels of the bus are numbered across every chip: channels 0 ~ 7 are
+ * on the first chip, 8 ~ 15 on the second, and so on. A scan of the bus reads
+ * the chips one after another in a single pass. Since each chip takes the
+ * same time to scan, the number of readings per second grows with the number
+ * of chips until the bus is busy for the whole of every sample period.
+ * 
+ * @see MCP3208
+ * @author Matthew Flynn
+ * @version March 19th, 2018
+ */
+public class MCP3208Bus {
+    
+    private final MCP3208[] chips;
+    // the results of one chip's scan. Reused by every scan
+    private final short[] chipReadings = new short[MCP3208.CHANNELS];
+    
+    /**
+     * Constructs a bus of MCP3208s, bit-banged through GPIO pins on the
+     * Raspberry Pi (wiringPi numbering)
+     * 
+     * @param clk The pin that every chip's Clock is connected to
+     * @param dOut The pin that every chip's Digital Out is connected to
+     * @param dIn The pin that every chip's Digital In is connected to
+     * @param chipSelects The pin that each chip's Chip Select is connected
+     * to, in channel order
+     * 
+     * @see BitBangTransport
+     */
+    public MCP3208Bus(int clk, int dOut, int dIn, int... chipSelects) {
+        this(chipsOn(clk, dOut, dIn, chipSelects));
+    }
+    
+    /**
+     * Constructs a bus of MCP3208s that have already been set up. The chips
+     * must not be read by anything else while the bus is in use
+     * 
+     * @param chips the chips on the bus, in channel order
+     */
+    public MCP3208Bus(MCP3208... chips) {
+        if (chips.length == 0) {
+            throw new IllegalArgumentException("A bus needs at least one MCP3208");
+        }
+        this.chips = chips.clone();
+    }
+    
+    /**
+     * @return the number of MCP3208s on the bus
+     */
+    public int getChipCount() {
+        return chips.length;
+    }
+    
+    /**
+     * @return the number of channels across every MCP3208 on the bus
+     */
+    public int getChannelCount() {
+        return chips.length * MCP3208.CHANNELS;
+    }
+    
+    /**
+     * @param chip the index of the chip on the bus
+     * @return the MCP3208
+     */
+    public MCP3208 getChip(int chip) {
+        return chips[chip];
+    }
+    
+    /**
+     * @param channel a channel of the bus
+     * @return the MCP3208 that the channel is on
+     */
+    public MCP3208 chipOf(int channel) {
+        checkChannel(channel);
+        return chips[channel / MCP3208.CHANNELS];
+    }
+    
+    /**
+     * @param channel a channel of the bus
+     * @return the channel on its own MCP3208 (0 ~ 7)
+     */
+    public static int channelOnChip(int channel) {
+        return channel % MCP3208.CHANNELS;
+    }
+    
+    /**
+     * Reads one channel of the bus
+     * 
+     * @param channel the channel to read
+     * @return the result of the analog to digital conversion (12-bit data)
+     */
+    public short read(int channel) {
+        return chipOf(channel).read(channelOnChip(channel));
+    }
+    
+    /**
+     * Reads every channel of every chip, one chip after another
+     * 
+     * @param out the buffer to store the results in, indexed by the channel
+     * of the bus (must have room for <code>getChannelCount</code> values)
+     * @return the number of channels read
+     */
+    public int scan(short[] out) {
+        if (out.length < getChannelCount()) {
+            throw new IllegalArgumentException("The buffer is too small for " + chips.length + " MCP3208s.");
+        }
+        int count = 0;
+        for (int i = 0;i < chips.length;i++) {
+            count += chips[i].scan(chipReadings);
+            System.arraycopy(chipReadings, 0, out, i * MCP3208.CHANNELS, MCP3208.CHANNELS);
+        }
+        return count;
+    }
+    
+    private void checkChannel(int channel) {
+        if (channel < 0 || channel >= getChannelCount()) {
+            throw new IllegalArgumentException("The requested channel (channel " + channel + ") does not exist on a bus of " + chips.length + " MCP3208s.");
+        }
+    }
+    
+    // makes one bit-banged chip per chip select. Provisioning reuses pins, so
+    // every chip drives the same clock and data pins
+    private static MCP3208[] chipsOn(int clk, int dOut, int dIn, int[] chipSelects) {
+        MCP3208[] ret = new MCP3208[chipSelects.length];
+        for (int i = 0;i < chipSelects.length;i++) {
+            ret[i] = new MCP3208(chipSelects[i], clk, dOut, dIn);
+        }
+        return ret;
+    }
+    
+}
@@ -0,0 +1,344 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measurements of how the program is performing: latency histograms for each
+ * stage from a reading to a sound, the number of readings and presses on each
+ * channel, the heart rate found on each channel, the number of audio
+ * underruns, and how hard the sampler and the whole program are working the
+ * CPU. Everything is recorded with
+ * atomic counters, without locks or allocation, so the hot paths can record
+ * freely.
+ * <p>
+ * The measurements can be watched over JMX once <code>register</code> has
+ * been called, and printed regularly with <code>startLogging</code>.
+ * 
+ * @see LatencyHistogram
+ * @see MetricsMXBean
+ * @author Matthew Flynn
+ * @version March 8th, 2018
+ */
+public final class Metrics implements MetricsMXBean {
+    
+    /**
+     * The name that the metrics are registered under in JMX
+     */
+    public static final String OBJECT_NAME = "SoundsWithPulse:type=Metrics";
+    /**
+     * The most channels that readings and presses are counted for
+     */
+    public static final int MAX_CHANNELS = 1024;
+    
+    /**
+     * How long each scan of an MCP3208 takes
+     */
+    public static final LatencyHistogram ADC_READ = new LatencyHistogram("adc read");
+    /**
+     * How long from a reading crossing the threshold to its press being taken
+     * by the player
+     */
+    public static final LatencyHistogram DETECTION = new LatencyHistogram("detection");
+    /**
+     * How long it takes to look up the sample for a note
+     */
+    public static final LatencyHistogram SAMPLE_LOOKUP = new LatencyHistogram("sample lookup");
+    /**
+     * How long from a note being queued in the audio engine to its voice
+     * starting
+     */
+    public static final LatencyHistogram LINE_START = new LatencyHistogram("line start");
+    /**
+     * How long from a reading crossing the threshold to its note reaching the
+     * speaker
+     */
+    public static final LatencyHistogram PRESS_TO_SOUND = new LatencyHistogram("press to sound");
+    
+    private static final AtomicLongArray samples = new AtomicLongArray(MAX_CHANNELS);
+    private static final AtomicLongArray triggers = new AtomicLongArray(MAX_CHANNELS);
+    private static final AtomicLong underruns = new AtomicLong();
+    // the number of channels in use
+    private static volatile int channels;
+    // the readings per second of each channel over the last logging period,
+    // and the counts that they were worked out from
+    private static volatile double[] sampleRates = new double[0];
+    private static long[] lastSamples = new long[0];
+    private static long lastLog;
+    // the CPU time used by every thread per second over the last logging
+    // period, and the total that it was worked out from
+    private static volatile double cpuLoad;
+    private static long lastCpu;
+    // the sampler reading the sensors, if there is one
+    private static volatile Sampler sampler;
+    // the sensors whose heart rates are reported
+    private static volatile PulseSensor[] sensors = new PulseSensor[0];
+    private static ScheduledExecutorService logger;
+    
+    private static final Metrics INSTANCE = new Metrics();
+    
+    // the metrics are only created once, to be registered with JMX
+    private Metrics() {}
+    
+    /**
+     * Counts a reading of a channel
+     * 
+     * @param channel the channel
+     */
+    public static void countSample(int channel) {
+        if (channel < MAX_CHANNELS) {
+            samples.incrementAndGet(channel);
+        }
+    }
+    
+    /**
+     * Counts a press detected on a channel
+     * 
+     * @param channel the channel
+     */
+    public static void countTrigger(int channel) {
+        if (channel < MAX_CHANNELS) {
+            triggers.incrementAndGet(channel);
+        }
+    }
+    
+    /**
+     * Counts a time that the audio line ran out of audio to play
+     */
+    public static void countUnderrun() {
+        underruns.incrementAndGet();
+    }
+    
+    /**
+     * Sets the number of channels in use, which is how many are reported
+     * 
+     * @param count the number of channels
+     */
+    public static void setChannelCount(int count) {
+        channels = Math.min(count, MAX_CHANNELS);
+    }
+    
+    /**
+     * Sets the sampler whose mode and CPU load are reported
+     * 
+     * @param s the sampler
+     */
+    public static void setSampler(Sampler s) {
+        sampler = s;
+    }
+    
+    /**
+     * Sets the sensors whose heart rates are reported, one per channel.
+     * Sensors that aren't tracking a heart rate are reported as having none
+     * 
+     * @param s the sensors, in channel order
+     */
+    public static void setSensors(PulseSensor... s) {
+        sensors = s.clone();
+    }
+    
+    /**
+     * Registers the metrics with the platform's JMX server. Calling this more
+     * than once does nothing
+     */
+    public static synchronized void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics", e);
+        }
+    }
+    
+    /**
+     * Starts printing a summary of the metrics regularly, on a background
+     * thread. Calling this more than once does nothing
+     * 
+     * @param periodSeconds the time between summaries, in seconds
+     */
+    public static synchronized void startLogging(long periodSeconds) {
+        if (logger != null) {
+            return;
+        }
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread ret = new Thread(r, "metrics");
+            ret.setDaemon(true);
+            return ret;
+        });
+        logger.scheduleAtFixedRate(() -> System.out.println(summary()),
+            periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Works out the sample rates since the last summary, and describes all of
+     * the metrics
+     * 
+     * @return a summary of the metrics, over several lines
+     */
+    public static synchronized String summary() {
+        long now = System.nanoTime();
+        long[] counts = INSTANCE.getSamplesPerChannel();
+        double[] rates = new double[counts.length];
+        double total = 0;
+        for (int i = 0;i < counts.length;i++) {
+            long last = i < lastSamples.length ? lastSamples[i] : 0;
+            rates[i] = lastLog == 0 ? 0 : (counts[i] - last) * 1e9 / (now - lastLog);
+            total += rates[i];
+        }
+        sampleRates = rates;
+        lastSamples = counts;
+        long cpu = totalCpuTime();
+        cpuLoad = lastLog == 0 ? 0 : (double)(cpu - lastCpu) / (now - lastLog);
+        lastCpu = cpu;
+        lastLog = now;
+        StringBuilder ret = new StringBuilder("Metrics:");
+        for (LatencyHistogram h : new LatencyHistogram[] {ADC_READ, DETECTION,
+                SAMPLE_LOOKUP, LINE_START, PRESS_TO_SOUND}) {
+            ret.append("\n  ").append(h);
+        }
+        ret.append(String.format("%n  %.0f samples/s over %d channels, %d presses, %d underruns",
+            total, counts.length, sum(INSTANCE.getTriggersPerChannel()), underruns.get()));
+        double[] bpms = INSTANCE.getHeartRates();
+        if (bpms.length > 0) {
+            double[] confidences = INSTANCE.getHeartRateConfidences();
+            ret.append("\n  heart rates:");
+            for (int i = 0;i < bpms.length;i++) {
+                if (bpms[i] == 0) {
+                    ret.append(" -");
+                } else {
+                    ret.append(String.format(" %.0fbpm (%.0f%%)", bpms[i],
+                        100 * confidences[i]));
+                }
+            }
+        }
+        ret.append("\n  ").append(Instrument.getCache());
+        Sampler s = sampler;
+        if (s != null) {
+            ret.append(String.format("%n  sampling %s every %dus, sampler %.1f%% of a core",
+                s.getMode(), s.getCurrentPeriodNanos() / 1000, 100 * s.getCpuLoad()));
+        }
+        ret.append(String.format("%n  %.1f%% of a core used in total", 100 * cpuLoad));
+        return ret.toString();
+    }
+    
+    // the CPU time used so far by every live thread, in nanoseconds
+    private static long totalCpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadCpuTimeSupported()) {
+            return 0;
+        }
+        long ret = 0;
+        for (long id : threads.getAllThreadIds()) {
+            ret += Math.max(threads.getThreadCpuTime(id), 0);
+        }
+        return ret;
+    }
+    
+    private static long sum(long[] values) {
+        long ret = 0;
+        for (long value : values) {
+            ret += value;
+        }
+        return ret;
+    }
+    
+    private static long[] toArray(AtomicLongArray counts) {
+        long[] ret = new long[channels];
+        for (int i = 0;i < ret.length;i++) {
+            ret[i] = counts.get(i);
+        }
+        return ret;
+    }
+    
+    @Override
+    public LatencyHistogram getAdcRead() {
+        return ADC_READ;
+    }
+    
+    @Override
+    public LatencyHistogram getDetection() {
+        return DETECTION;
+    }
+    
+    @Override
+    public LatencyHistogram getSampleLookup() {
+        return SAMPLE_LOOKUP;
+    }
+    
+    @Override
+    public LatencyHistogram getLineStart() {
+        return LINE_START;
+    }
+    
+    @Override
+    public LatencyHistogram getPressToSound() {
+        return PRESS_TO_SOUND;
+    }
+    
+    @Override
+    public long[] getSamplesPerChannel() {
+        return toArray(samples);
+    }
+    
+    @Override
+    public long[] getTriggersPerChannel() {
+        return toArray(triggers);
+    }
+    
+    @Override
+    public double[] getSampleRates() {
+        return sampleRates.clone();
+    }
+    
+    @Override
+    public double[] getHeartRates() {
+        PulseSensor[] s = sensors;
+        double[] ret = new double[s.length];
+        for (int i = 0;i < ret.length;i++) {
+            HeartRateEstimator estimator = s[i].getHeartRate();
+            ret[i] = estimator == null ? 0 : estimator.getBpm();
+        }
+        return ret;
+    }
+    
+    @Override
+    public double[] getHeartRateConfidences() {
+        PulseSensor[] s = sensors;
+        double[] ret = new double[s.length];
+        for (int i = 0;i < ret.length;i++) {
+            HeartRateEstimator estimator = s[i].getHeartRate();
+            ret[i] = estimator == null ? 0 : estimator.getConfidence();
+        }
+        return ret;
+    }
+    
+    @Override
+    public long getUnderruns() {
+        return underruns.get();
+    }
+    
+    @Override
+    public String getSamplingMode() {
+        Sampler s = sampler;
+        return s == null ? null : s.getMode().name();
+    }
+    
+    @Override
+    public double getSamplerCpuLoad() {
+        Sampler s = sampler;
+        return s == null ? 0 : s.getCpuLoad();
+    }
+    
+    @Override
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+    
+}
@@ -0,0 +1,90 @@
+/**
+ * The management interface of the program's <code>Metrics</code>, as seen
+ * over JMX (for example, in JConsole or VisualVM).
+ * 
+ * @see Metrics
+ * @author Matthew Flynn
+ * @version March 8th, 2018
+ */
+public interface MetricsMXBean {
+    
+    /**
+     * @return how long each scan of an MCP3208 takes
+     */
+    LatencyHistogram getAdcRead();
+    
+    /**
+     * @return how long from a reading crossing the threshold to its press
+     * being taken by the player
+     */
+    LatencyHistogram getDetection();
+    
+    /**
+     * @return how long it takes to look up the sample for a note
+     */
+    LatencyHistogram getSampleLookup();
+    
+    /**
+     * @return how long from a note being queued in the audio engine to its
+     * voice starting
+     */
+    LatencyHistogram getLineStart();
+    
+    /**
+     * @return how long from a reading crossing the threshold to its note
+     * reaching the speaker (including the audio still buffered in the line)
+     */
+    LatencyHistogram getPressToSound();
+    
+    /**
+     * @return the number of readings of each channel
+     */
+    long[] getSamplesPerChannel();
+    
+    /**
+     * @return the number of presses detected on each channel
+     */
+    long[] getTriggersPerChannel();
+    
+    /**
+     * @return the number of readings per second of each channel, over the
+     * last logging period
+     */
+    double[] getSampleRates();
+    
+    /**
+     * @return the heart rate found on each channel, in beats per minute, or 0
+     * for a channel without one
+     */
+    double[] getHeartRates();
+    
+    /**
+     * @return how much the heart rate found on each channel can be trusted,
+     * from 0 (not at all) to 1
+     */
+    double[] getHeartRateConfidences();
+    
+    /**
+     * @return the number of times the audio line ran out of audio to play
+     */
+    long getUnderruns();
+    
+    /**
+     * @return whether the sampler is reading at its full rate (ACTIVE) or its
+     * idle rate (IDLE), or null if there's no sampler
+     */
+    String getSamplingMode();
+    
+    /**
+     * @return the CPU time used by the sampler thread per second, as a
+     * fraction of one core
+     */
+    double getSamplerCpuLoad();
+    
+    /**
+     * @return the CPU time used by every thread per second, over the last
+     * logging period, as a fraction of one core
+     */
+    double getCpuLoad();
+    
+}
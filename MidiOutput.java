@@ -0,0 +1,175 @@
+import java.io.File;
+import java.io.IOException;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+
+/**
+ * A <code>NoteOutput</code> that sends MIDI note-on and note-off messages,
+ * using each pitch's <code>MIDICode</code>, instead of playing our own
+ * samples. Nothing has to be loaded and no samples are held in memory, so
+ * this starts quickly and uses little memory, at the cost of the sound.
+ * <p>
+ * Each instrument plays on its own MIDI channel, set to the instrument's
+ * General MIDI program. The messages can go to the built-in software
+ * synthesizer, to a MIDI file, or to any other <code>Receiver</code>.
+ * <p>
+ * Messages to the synthesizer and the file are timestamped from when the
+ * press happened, not when the message was sent, so the spacing of the notes
+ * is exact no matter how long each press took to detect. The synthesizer is
+ * told to play each note <code>DEFAULT_DELAY_MICROS</code> after its press,
+ * which is long enough that every note can be scheduled before it's due.
+ * 
+ * @see Pitch
+ * @author Matthew Flynn
+ * @version March 22nd, 2018
+ */
+public class MidiOutput implements NoteOutput {
+    
+    /**
+     * The MIDI velocity of the lightest press
+     */
+    public static final int MIN_VELOCITY = 38;
+    /**
+     * How long after a press its note is scheduled on the synthesizer, in
+     * microseconds. A press isn't reported until its reading bottoms out,
+     * which takes at most <code>PulseSensor.MAX_TROUGH_NANOS</code>
+     */
+    public static final long DEFAULT_DELAY_MICROS = PulseSensor.MAX_TROUGH_NANOS / 1000;
+    
+    // the channel that General MIDI reserves for drums
+    private static final int DRUM_CHANNEL = 9;
+    // the file's timing: 25 frames per second of 40 ticks is 1 tick per ms
+    private static final int TICKS_PER_FRAME = 40;
+    
+    // where messages are sent, if they aren't recorded to a track
+    private final Receiver receiver;
+    private final Synthesizer synthesizer;
+    // where messages are recorded, if they're going to a file
+    private final Sequence sequence;
+    private final Track track;
+    private final File file;
+    // the time of the press that the timestamps are measured from, its
+    // timestamp, and how long after its press each message is scheduled. A
+    // negative origin means messages aren't timestamped
+    private final long originNanos;
+    private final long originMicros;
+    private final long delayMicros;
+    
+    /**
+     * Constructs a <code>MidiOutput</code> that sends untimestamped messages
+     * to a receiver, such as an external MIDI device
+     * 
+     * @param receiver the receiver
+     */
+    public MidiOutput(Receiver receiver) {
+        this(receiver, null, null, null, -1, 0);
+    }
+    
+    private MidiOutput(Receiver receiver, Synthesizer synthesizer,
+            Sequence sequence, File file, long originMicros, long delayMicros) {
+        this.receiver = receiver;
+        this.synthesizer = synthesizer;
+        this.sequence = sequence;
+        track = sequence == null ? null : sequence.createTrack();
+        this.file = file;
+        originNanos = System.nanoTime();
+        this.originMicros = originMicros;
+        this.delayMicros = delayMicros;
+        for (Instrument instrument : Instrument.values()) {
+            send(ShortMessage.PROGRAM_CHANGE, channelOf(instrument),
+                instrument.midiProgram, 0, originNanos);
+        }
+    }
+    
+    /**
+     * Opens the default synthesizer (normally Java's built-in software
+     * synthesizer) and plays through it
+     * 
+     * @return an output to the synthesizer
+     * @throws MidiUnavailableException if the synthesizer can't be opened
+     */
+    public static MidiOutput openSynthesizer() throws MidiUnavailableException {
+        Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        synthesizer.open();
+        return new MidiOutput(synthesizer.getReceiver(), synthesizer, null,
+            null, synthesizer.getMicrosecondPosition(), DEFAULT_DELAY_MICROS);
+    }
+    
+    /**
+     * Records every note to a standard MIDI file, which is written when the
+     * output is closed
+     * 
+     * @param file the file to write
+     * @return an output to the file
+     */
+    public static MidiOutput toFile(File file) {
+        Sequence sequence;
+        try {
+            sequence = new Sequence(Sequence.SMPTE_25, TICKS_PER_FRAME);
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e);
+        }
+        return new MidiOutput(null, null, sequence, file, 0, 0);
+    }
+    
+    @Override
+    public void noteOn(Instrument instrument, Pitch p, float velocity, long time) {
+        int midiVelocity = MIN_VELOCITY + Math.round((127 - MIN_VELOCITY) * velocity);
+        send(ShortMessage.NOTE_ON, channelOf(instrument), p.MIDICode,
+            Math.max(1, Math.min(127, midiVelocity)), time);
+    }
+    
+    @Override
+    public void noteOff(Instrument instrument, Pitch p, long time) {
+        send(ShortMessage.NOTE_OFF, channelOf(instrument), p.MIDICode, 0, time);
+    }
+    
+    /**
+     * Closes the synthesizer or receiver, or writes the MIDI file
+     * 
+     * @throws IOException if the MIDI file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (track != null) {
+            MidiSystem.write(sequence, 0, file);
+        } else {
+            receiver.close();
+            if (synthesizer != null) {
+                synthesizer.close();
+            }
+        }
+    }
+    
+    // sends or records one message. A new message is made every time, since
+    // the receiver or track may keep it
+    private void send(int command, int channel, int data1, int data2, long time) {
+        ShortMessage message;
+        try {
+            message = new ShortMessage(command, channel, data1, data2);
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalArgumentException(e);
+        }
+        long micros = originMicros < 0 ? -1
+            : originMicros + (time - originNanos) / 1000 + delayMicros;
+        if (track != null) {
+            track.add(new MidiEvent(message, Math.max(0, micros / 1000)));
+        } else {
+            receiver.send(message, micros);
+        }
+    }
+    
+    // every instrument gets its own channel, skipping the drum channel
+    private static int channelOf(Instrument instrument) {
+        int ret = instrument.ordinal();
+        return ret < DRUM_CHANNEL ? ret : ret + 1;
+    }
+    
+}
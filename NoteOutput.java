@@ -0,0 +1,36 @@
+import java.io.Closeable;
+
+/**
+ * Somewhere that notes can be played: either mixed from our own samples by an
+ * <code>AudioEngine</code>, or sent as MIDI to a synthesizer or a file. All
+ * calls come from one thread, and none of them may block for long.
+ * 
+ * @see SampleOutput
+ * @see MidiOutput
+ * @author Matthew Flynn
+ * @version March 22nd, 2018
+ */
+public interface NoteOutput extends Closeable {
+    
+    /**
+     * Starts a note
+     * 
+     * @param instrument the instrument to play the note on
+     * @param p the pitch of the note
+     * @param velocity how hard the note is played, from 0 to 1
+     * @param time when the press that caused the note happened (as given by
+     * <code>System.nanoTime</code>)
+     */
+    void noteOn(Instrument instrument, Pitch p, float velocity, long time);
+    
+    /**
+     * Ends a note. Outputs whose notes always play to the end may ignore this
+     * 
+     * @param instrument the instrument the note was played on
+     * @param p the pitch of the note
+     * @param time when the release that ended the note happened (as given by
+     * <code>System.nanoTime</code>)
+     */
+    void noteOff(Instrument instrument, Pitch p, long time);
+    
+}
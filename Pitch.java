@@ -1,15 +1,26 @@
 /**
  * Enum type to represent different pitches (in scientific pitch notation).
  * Because '#' is not permitted in Enum names, a lowercase 's', for sharp,
- * is used in it's place.  Currently, only the pitches from C4 to C5 
- * inclusive are represented. That's all this project needs right now.
+ * is used in it's place, and because '-' isn't either, the lowest octave
+ * (octave -1) is written with an underscore: <code>C_1</code> is C-1. Every
+ * pitch in the MIDI range is represented, from C-1 (MIDI code 0) to G9 (MIDI
+ * code 127), in order, so a pitch's ordinal is its MIDI code.
  * 
  * @author Matthew Flynn
- * @version January 25th, 2018
+ * @version March 29th, 2018
  */
 public enum Pitch {
-    C4(0x3C), Cs4(0x3D), D4(0x3E), Ds4(0x3F), E4(0x40), F4(0x41), Fs4(0x42),
-    G4(0x43), Gs4(0x44), A4(0x45), As4(0x46), B4(0x47), C5(0x48);
+    C_1, Cs_1, D_1, Ds_1, E_1, F_1, Fs_1, G_1, Gs_1, A_1, As_1, B_1,
+    C0, Cs0, D0, Ds0, E0, F0, Fs0, G0, Gs0, A0, As0, B0,
+    C1, Cs1, D1, Ds1, E1, F1, Fs1, G1, Gs1, A1, As1, B1,
+    C2, Cs2, D2, Ds2, E2, F2, Fs2, G2, Gs2, A2, As2, B2,
+    C3, Cs3, D3, Ds3, E3, F3, Fs3, G3, Gs3, A3, As3, B3,
+    C4, Cs4, D4, Ds4, E4, F4, Fs4, G4, Gs4, A4, As4, B4,
+    C5, Cs5, D5, Ds5, E5, F5, Fs5, G5, Gs5, A5, As5, B5,
+    C6, Cs6, D6, Ds6, E6, F6, Fs6, G6, Gs6, A6, As6, B6,
+    C7, Cs7, D7, Ds7, E7, F7, Fs7, G7, Gs7, A7, As7, B7,
+    C8, Cs8, D8, Ds8, E8, F8, Fs8, G8, Gs8, A8, As8, B8,
+    C9, Cs9, D9, Ds9, E9, F9, Fs9, G9;
     
     /** 
      * how the pitch name will appear in the path to any audio files.
@@ -21,17 +32,55 @@ public enum Pitch {
      */
     public final byte MIDICode;
     
+    /**
+     * the frequency of the pitch in Hz, in equal temperament with A4 at 440Hz
+     */
+    public final double frequency;
+    
+    // the names of the pitches in an octave, as they appear in filenames, two
+    // characters each. A constant, so that the constructor can use it
+    private static final String NAMES = "C C#D D#E F F#G G#A A#B ";
+    // the pitches in MIDI order. values() makes a new array every time
+    private static final Pitch[] BY_MIDI = values();
+    // the steps between the notes of a major scale, in semitones
+    private static final int[] MAJOR_STEPS = {2, 2, 1, 2, 2, 2, 1};
+    
     @Override
     public String toString(){
         return filename;
     }
     
-    // private constructor
-    private Pitch(int midi){
+    // private constructor. The MIDI code, name and frequency all follow from
+    // the pitch's place in the enum
+    private Pitch(){
+        int midi = ordinal();
         MIDICode = (byte)midi;
-        String temp = this.name();
-        temp = temp.replace("s", "#");
-        filename = temp;
+        int note = midi % 12;
+        filename = NAMES.substring(2 * note, 2 * note + 2).trim() + (midi / 12 - 1);
+        frequency = 440 * Math.pow(2, (midi - 69) / 12.0);
+    }
+    
+    /**
+     * Gets the pitch with the given MIDI code
+     * 
+     * @param midi the MIDI code (0 ~ 127)
+     * @return the pitch
+     */
+    public static Pitch fromMidi(int midi) {
+        if (midi < 0 || midi >= BY_MIDI.length) {
+            throw new IllegalArgumentException("The MIDI code " + midi + " is not a pitch.");
+        }
+        return BY_MIDI[midi];
+    }
+    
+    /**
+     * Gets the pitch a number of semitones away from this one
+     * 
+     * @param semitones the number of semitones up (or down, if negative)
+     * @return the pitch
+     */
+    public Pitch transpose(int semitones) {
+        return fromMidi(MIDICode + semitones);
     }
     
     /**
@@ -44,5 +93,22 @@ public enum Pitch {
         return new Pitch[]{C4, D4, E4, F4, G4, A4, B4, C5};
     }
     
+    /**
+     * Returns a number of pitches rising up the major scale of a given pitch,
+     * starting from that pitch. The pitches stop at G9 if they run out.
+     * 
+     * @param root the first pitch, and the key of the scale
+     * @param count the number of pitches
+     * @return the pitches
+     */
+    public static Pitch[] major(Pitch root, int count) {
+        Pitch[] ret = new Pitch[count];
+        int midi = root.MIDICode;
+        for (int i = 0;i < count;i++) {
+            ret[i] = BY_MIDI[Math.min(midi, BY_MIDI.length - 1)];
+            midi += MAJOR_STEPS[i % MAJOR_STEPS.length];
+        }
+        return ret;
+    }
+    
 }
-
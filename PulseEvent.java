@@ -0,0 +1,71 @@
+/**
+ * Something that happened to a pulse sensor: it was pressed, or released.
+ * Events are not created for each press. They live in the slots of an
+ * <code>EventQueue</code> and are filled in again and again, so a handler must
+ * copy anything it needs before it returns.
+ * 
+ * @see EventQueue
+ * @see PulseSensor
+ * @author Matthew Flynn
+ * @version February 22nd, 2018
+ */
+public final class PulseEvent {
+    
+    /**
+     * The type of an event for a press
+     */
+    public static final int PRESS = 1;
+    /**
+     * The type of an event for a release
+     */
+    public static final int RELEASE = 2;
+    
+    int type;
+    long time;
+    PulseSensor sensor;
+    float velocity;
+    
+    // events are only created by an EventQueue
+    PulseEvent() {}
+    
+    /**
+     * @return <code>PRESS</code> or <code>RELEASE</code>
+     */
+    public int getType() {
+        return type;
+    }
+    
+    /**
+     * @return when the event happened (as given by <code>System.nanoTime
+     * </code>). For a press, this is when the reading first went below the
+     * threshold
+     */
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * @return the sensor that the event happened to
+     */
+    public PulseSensor getSensor() {
+        return sensor;
+    }
+    
+    /**
+     * @return the channel on the MCP3208 of the sensor that the event happened
+     * to
+     */
+    public int getChannel() {
+        return sensor.getChannel();
+    }
+    
+    /**
+     * @return how hard the sensor was pressed, from 0 to 1: how far the reading
+     * dropped below the threshold, as a fraction of the threshold. Always 0
+     * for a release
+     */
+    public float getVelocity() {
+        return velocity;
+    }
+    
+}
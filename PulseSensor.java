@@ -3,11 +3,35 @@
  * determine if thier physical sensor counterpart has been pressed. However,
  * as Raspberry Pi has only digital input, an analog/ditigal converter must be
  * used to get the data, and this class does not implement that. It uses an
- * <code>MCP3208</code> object for A/D conversion.
+ * <code>MCP3208</code> object for A/D conversion. The sensor can either read
+ * its own value with <code>readAdc</code>, or be given a value that was read
+ * as part of a scan of the whole MCP3208 with <code>update</code>.
+ * <p>
+ * If the sensor is given an <code>EventQueue</code>, it also reports each
+ * press and release as a <code>PulseEvent</code>. A press is reported once
+ * the reading stops falling (or after <code>MAX_TROUGH_NANOS</code>), so that
+ * its velocity can come from the depth of the trough, but it carries the time
+ * that the reading first went below the threshold.
+ * <p>
+ * By default, the threshold isn't fixed. Each sensor follows its own resting
+ * level (its baseline) and noise with a <code>BaselineTracker</code>, and sets
+ * its threshold and re-arm range relative to them, so that changes in skin
+ * contact, temperature or the sensor itself don't cause missed presses or
+ * storms of repeated ones. While the sensor is pressed, the baseline only
+ * drifts slowly towards the reading, so a press hardly moves it, but a
+ * resting level that drops and stays down still ends the press in the end.
+ * The fixed levels are still used until the baseline is known, and all the
+ * time if adaptive detection is turned off.
+ * <p>
+ * A sensor can also estimate the heart rate of the skin on it, with
+ * <code>trackHeartRate</code>.
  * 
  * @see MCP3208
+ * @see PulseEvent
+ * @see BaselineTracker
+ * @see HeartRateEstimator
  * @author Matthew Flynn
- * @version January 25th, 2018
+ * @version March 1st, 2018
  */
 public class PulseSensor{
     
@@ -29,6 +53,49 @@ public class PulseSensor{
     private static final int DOWN_NORMAL = 1900;
     private boolean isPressed;
     
+    // with adaptive detection, a press must go this far below the baseline
+    // (or NOISE_SIGMAS times the noise, if that's further), and the reading
+    // must come back within REARM_RANGE of the baseline (or NOISE_SIGMAS times
+    // the noise) before another press. These match the fixed levels for a
+    // baseline of 2000
+    private static final int TRIGGER_DEPTH = (DOWN_NORMAL + UP_NORMAL) / 2 - THRESHOLD;
+    private static final int REARM_RANGE = (UP_NORMAL - DOWN_NORMAL) / 2;
+    private static final float NOISE_SIGMAS = 4;
+    // how far back the readings that the baseline is based on go, in
+    // nanoseconds
+    private static final long BASELINE_NANOS = 2000000000L;
+    // the time constant that the baseline drifts towards the reading with
+    // while the sensor is pressed, in nanoseconds
+    private static final long DRIFT_NANOS = 20000000000L;
+    
+    private final BaselineTracker baseline = new BaselineTracker(BASELINE_NANOS);
+    private boolean adaptive = true;
+    // the levels in use: below triggerLevel is a press, and between
+    // rearmLow and rearmHigh ends it
+    private int triggerLevel = THRESHOLD;
+    private int rearmLow = DOWN_NORMAL;
+    private int rearmHigh = UP_NORMAL;
+    private int triggerCount;
+    // estimates the heart rate, or null if it isn't being tracked
+    private HeartRateEstimator heartRate;
+    
+    /**
+     * The longest that a press waits for the reading to stop falling before
+     * it's reported anyway, in nanoseconds
+     */
+    public static final long MAX_TROUGH_NANOS = 20000000;
+    // the reading must rise this far above its lowest point for the trough to
+    // be over, so that noise doesn't end it early
+    private static final int TROUGH_RISE = 16;
+    
+    // where to report presses and releases, or null to not report them
+    private EventQueue events;
+    // the time of the current press, the lowest reading so far, and whether
+    // the press has been reported yet
+    private long pressTime;
+    private int trough;
+    private boolean pressReported;
+    
     /**
      * Constructs a new <code>PulseSensor</code> Object
      * 
@@ -54,84 +121,198 @@ public class PulseSensor{
      * @return whether or not the pulse sensor has been pressed
      */
     public boolean readAdc() {
-        short result = adc.read(channel);
+        return update(System.nanoTime(), adc.read(channel));
+    }
+    
+    /**
+     * Determines if the pulse sensor has been pressed, from a value that has
+     * already been read from its channel (usually by <code>MCP3208.scan
+     * </code>)
+     * 
+     * @param result the value read from this sensor's channel
+     * @return whether or not the pulse sensor has been pressed
+     */
+    public boolean update(short result) {
+        return update(System.nanoTime(), result);
+    }
+    
+    /**
+     * Determines if the pulse sensor has been pressed, from a value that has
+     * already been read from its channel, and reports any press or release to
+     * the sensor's event queue. Nothing is allocated.
+     * 
+     * @param time when the value was read (<code>System.nanoTime</code>)
+     * @param result the value read from this sensor's channel
+     * @return whether or not the pulse sensor has been pressed (this is true
+     * as soon as the reading goes below the threshold, which is before the
+     * press is reported)
+     */
+    public boolean update(long time, short result) {
+        if (adaptive) {
+            // the baseline only follows the sensor at rest, so that presses
+            // don't drag it down, and only drifts while it's pressed, so that
+            // a level that settles inside the press still ends it
+            if (isPressed) {
+                baseline.drift(time, result, DRIFT_NANOS);
+            } else {
+                baseline.update(time, result);
+            }
+            if (baseline.isWarm()) {
+                updateLevels();
+            }
+        }
+        if (heartRate != null && !isPressed) {
+            heartRate.update(time, result);
+        }
         if (isPressed) {
-            if (DOWN_NORMAL < result && result < UP_NORMAL) {
+            if (!pressReported) {
+                if (result < trough) {
+                    trough = result;
+                }
+                // a slow press that's still falling is reported once it's
+                // had MAX_TROUGH_NANOS to bottom out, with the trough so far
+                if (result >= trough + TROUGH_RISE
+                        || time - pressTime >= MAX_TROUGH_NANOS) {
+                    reportPress();
+                }
+            }
+            if (rearmLow < result && result < rearmHigh) {
                 isPressed = false;
+                if (!pressReported) {
+                    reportPress();
+                }
+                if (events != null) {
+                    events.offer(PulseEvent.RELEASE, time, this, 0f);
+                }
             }
             return false;
         }
-        if (result < THRESHOLD) {
+        if (result < triggerLevel) {
             isPressed = true;
+            pressTime = time;
+            trough = result;
+            pressReported = false;
+            triggerCount++;
             return true;
         } else {
             return false;
         }
     }
     
-    // for testing
-    /*
-    public short data() {
-        return adc.read(channel);
-    }*/
+    // sets the trigger and re-arm levels from the current baseline and noise
+    private void updateLevels() {
+        float level = baseline.getMean();
+        float noise = NOISE_SIGMAS * baseline.getDeviation();
+        triggerLevel = Math.max(0, (int)(level - Math.max(TRIGGER_DEPTH, noise)));
+        int range = (int)Math.max(REARM_RANGE, noise);
+        rearmLow = (int)level - range;
+        rearmHigh = (int)level + range;
+    }
     
-    // for testing: displays heart rate on a graph
-    /*
-    public static void testHeartRate() {
-        // fill the array with zeroes
-        short[] readings = new short[512];
-        for (int i = 0;i < readings.length;i++) {
-            readings[i] = 0;
+    // reports the current press, with the depth of its trough as velocity
+    private void reportPress() {
+        pressReported = true;
+        if (events != null && triggerLevel > 0) {
+            float velocity = Math.min(1f, (triggerLevel - trough) / (float)triggerLevel);
+            events.offer(PulseEvent.PRESS, pressTime, this, velocity);
         }
-        ReadingGraph graph = new ReadingGraph(readings);
-        graph.pack();
-        graph.setVisible(true);
-        int count = 0; // so that every 1000 samples the graph can be updated
-        while (true) {
-            for (int i = readings.length - 1 ; i > 0 ; i--) {
-                readings[i] = readings[i - 1];
-            }
-            readings[0] = new MCP3208(21, 22, 23, 24).read(0);
-            if (count % 100 == 0) {
-                graph.dispose();
-                graph = new ReadingGraph(readings);
-                graph.pack();
-                graph.setVisible(true);
-            }
-            count++;
-        }
-    }*/
+    }
     
-    // may be used in later iterations of this program
-    /*/**
-     * Performs a Fourier Transformation on the data given
+    /**
+     * Sets where this sensor reports its presses and releases. Only one thread
+     * may update sensors that share a queue
      * 
-     * @param data the data to do the transformation on (must have a length
-     * which is an integer ^ 2)
-     * @param freq the sampling frequency of the data
-     * @return an array of x-y pairs (which are 2 element arrays) mapping
-     * frequency to amplitude
-     */
-    /*private static double[][] fourierTrans(double[] input, int freq) {
-        // perform the FFT
-        FFT instance = new FFT(input.length);
-        double[] real = Arrays.copyOf(input, input.length);
-        double[] imag = new double[input.length];
-        instance.fft(real, imag);
-        // translate the fft values into amplitudes
-        double[] magnitudes = new double[input.length];
-        for (int i = 0;i < magnitudes.length;i++) {
-            magnitudes[i] = Math.sqrt((real[i]*real[i]) + (imag[i]*imag[i]));
-        }
-        // assign each amplitude returned an x-value based on the sampling rate
-        double resolution = (double)freq / input.length;
-        double[][] ret = new double[magnitudes.length][2];
-        for (int i = 0;i < ret.length;i++) {
-            ret[i][0] = i * resolution;
-            ret[i][1] = magnitudes[i];
-        }
-        // return the result
-        return ret;
+     * @param events the queue to report to, or null to stop reporting
+     */
+    public void setEventQueue(EventQueue events) {
+        this.events = events;
+    }
+    
+    /**
+     * Turns adaptive detection on or off. When it's off, the fixed levels are
+     * used. Turning it back on starts following the baseline from scratch
+     * 
+     * @param adaptive whether the levels should follow the sensor's baseline
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        baseline.reset();
+        triggerLevel = THRESHOLD;
+        rearmLow = DOWN_NORMAL;
+        rearmHigh = UP_NORMAL;
+    }
+    
+    /**
+     * @return whether the levels follow the sensor's baseline
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+    
+    /**
+     * @return the sensor's current resting level (meaningless if adaptive
+     * detection is off)
+     */
+    public float getBaseline() {
+        return baseline.getMean();
+    }
+    
+    /**
+     * @return the noise in the sensor's resting level, as a standard
+     * deviation (meaningless if adaptive detection is off)
+     */
+    public float getNoise() {
+        return baseline.getDeviation();
+    }
+    
+    /**
+     * @return the level that a reading must go below to be a press
+     */
+    public int getTriggerLevel() {
+        return triggerLevel;
+    }
+    
+    /**
+     * @return the number of presses detected
+     */
+    public int getTriggerCount() {
+        return triggerCount;
+    }
+    
+    /**
+     * Starts estimating the heart rate from this sensor's readings, which are
+     * ignored while the sensor is pressed
+     */
+    public void trackHeartRate() {
+        heartRate = new HeartRateEstimator();
+    }
+    
+    /**
+     * @return the estimator of the heart rate on this sensor, or null if
+     * <code>trackHeartRate</code> hasn't been called
+     */
+    public HeartRateEstimator getHeartRate() {
+        return heartRate;
+    }
+    
+    /**
+     * @return the <code>MCP3208</code> that the sensor is connected to
+     */
+    public MCP3208 getAdc() {
+        return adc;
+    }
+    
+    /**
+     * @return the channel on the MCP3208 that the sensor is connected to
+     */
+    public int getChannel() {
+        return channel;
+    }
+    
+    // for testing
+    /*
+    public short data() {
+        return adc.read(channel);
     }*/
     
- }
+}
@@ -0,0 +1,147 @@
+import java.util.Random;
+
+/**
+ * A made-up reading of one pulse sensor, as a function of time, for driving
+ * the program without any hardware. It's built from the same parts as a real
+ * reading: a resting level that drifts slowly, a heartbeat (a sharp rise and
+ * fall once a beat, with a smaller bump after it), noise, and every so often
+ * a press, which pulls the reading far below its resting level for a moment
+ * and lets it recover.
+ * <p>
+ * Every part is chosen at random from a seed, within realistic limits, so a
+ * signal is repeatable, and many signals made from different seeds don't
+ * move in step. Presses come at random, a few seconds apart on average. The
+ * signal must be read with times that never go backwards.
+ * 
+ * @see SimulatedMCP3208
+ * @author Matthew Flynn
+ * @version April 12th, 2018
+ */
+public class PulseSignal {
+    
+    /**
+     * The default average time between presses, in seconds
+     */
+    public static final double DEFAULT_PRESS_SECONDS = 3;
+    
+    // the resting level, and how far and how slowly it drifts
+    private static final int REST = 2000;
+    private static final int DRIFT = 40;
+    private static final double DRIFT_SECONDS = 30;
+    // the height of a heartbeat, and the fraction of each beat it rises and
+    // falls in
+    private static final int BEAT_HEIGHT = 60;
+    private static final double BEAT_WIDTH = 0.12;
+    // the standard deviation of the noise
+    private static final double NOISE = 8;
+    // the range of depths of a press, and how long it takes to go down, stay
+    // down and come back up, in nanoseconds
+    private static final int MIN_DEPTH = 1200;
+    private static final int MAX_DEPTH = 1900;
+    private static final long PRESS_FALL = 15000000;
+    private static final long PRESS_HOLD = 80000000;
+    private static final long PRESS_RISE = 40000000;
+    
+    private final Random random;
+    private final double beatNanos;
+    private final double beatPhase;
+    private final double driftPhase;
+    private double pressNanos = DEFAULT_PRESS_SECONDS * 1e9;
+    // the next (or current) press: when it starts, and how deep it goes.
+    // Scheduled from the first time the signal is read
+    private long pressStart = Long.MIN_VALUE;
+    private int pressDepth;
+    private long presses;
+    // the last time the signal was read
+    private long lastTime = Long.MIN_VALUE;
+    
+    /**
+     * Constructs a <code>PulseSignal</code>
+     * 
+     * @param seed the seed that every part of the signal is chosen from
+     */
+    public PulseSignal(long seed) {
+        random = new Random(seed);
+        // a resting heart rate of 55 to 95 beats a minute
+        beatNanos = 60e9 / (55 + 40 * random.nextDouble());
+        beatPhase = random.nextDouble();
+        driftPhase = 2 * Math.PI * random.nextDouble();
+    }
+    
+    /**
+     * Sets how often the sensor is pressed
+     * 
+     * @param seconds the average time between presses, in seconds, or 0 for
+     * no presses at all
+     */
+    public void setPressInterval(double seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Invalid press interval (" + seconds + ")");
+        }
+        pressNanos = seconds * 1e9;
+    }
+    
+    /**
+     * Works out the reading of the sensor at a given time
+     * 
+     * @param time the time (<code>System.nanoTime</code>), no earlier than
+     * the last time given
+     * @return the reading, from 0 to 4095
+     */
+    public short valueAt(long time) {
+        lastTime = time;
+        double value = REST + DRIFT * Math.sin(driftPhase
+            + 2 * Math.PI * (time / 1e9) / DRIFT_SECONDS);
+        // the heartbeat: a half sine wave, then a smaller, wider one
+        double phase = (time / beatNanos + beatPhase) % 1;
+        if (phase < BEAT_WIDTH) {
+            value += BEAT_HEIGHT * Math.sin(Math.PI * phase / BEAT_WIDTH);
+        } else if (phase < 3 * BEAT_WIDTH) {
+            value += BEAT_HEIGHT / 4 * Math.sin(Math.PI * (phase - BEAT_WIDTH)
+                / (2 * BEAT_WIDTH));
+        }
+        value += NOISE * random.nextGaussian() - pressAt(time);
+        return (short)Math.max(0, Math.min(4095, Math.round(value)));
+    }
+    
+    // how far the reading is pulled down by a press at the given time
+    private double pressAt(long time) {
+        if (pressNanos == 0) {
+            return 0;
+        }
+        if (pressStart == Long.MIN_VALUE) {
+            schedulePress(time);
+        }
+        long into = time - pressStart;
+        if (into >= PRESS_FALL + PRESS_HOLD + PRESS_RISE) {
+            schedulePress(time);
+            into = time - pressStart;
+        }
+        if (into < 0) {
+            return 0;
+        } else if (into < PRESS_FALL) {
+            return pressDepth * (double)into / PRESS_FALL;
+        } else if (into < PRESS_FALL + PRESS_HOLD) {
+            return pressDepth;
+        }
+        return pressDepth * (1 - (double)(into - PRESS_FALL - PRESS_HOLD) / PRESS_RISE);
+    }
+    
+    // picks when the next press starts (a random wait after the given time),
+    // and how deep it goes
+    private void schedulePress(long time) {
+        double wait = -Math.log(1 - random.nextDouble()) * pressNanos;
+        pressStart = time + (long)wait;
+        pressDepth = MIN_DEPTH + random.nextInt(MAX_DEPTH - MIN_DEPTH + 1);
+        presses++;
+    }
+    
+    /**
+     * @return the number of presses started by the times read so far
+     */
+    public long getPresses() {
+        // the last press scheduled may not have started yet
+        return lastTime < pressStart ? presses - 1 : presses;
+    }
+    
+}
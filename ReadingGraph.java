@@ -1,65 +1,240 @@
 import java.awt.Dimension;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.JFrame;
+import javax.swing.Timer;
 
-import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
-import org.jfree.data.xy.XYDataset;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
-import org.jfree.ui.ApplicationFrame;
+import org.jfree.data.xy.AbstractXYDataset;
 
 /**
- * Using the JFreeChart Library, graphs data collected from the pulse sensor.
- * This class is used only for testing purposes.
+ * Using the JFreeChart Library, graphs data collected from the pulse sensors
+ * as it comes in. This class is used only for testing purposes.
+ * <p>
+ * Each channel keeps its most recent readings in a fixed-size ring, and
+ * adding a reading only stores it there, so the graph can be fed from the
+ * detection thread at the full sample rate without slowing it down. The
+ * window is redrawn on the Swing thread at most <code>MAX_FPS</code> times a
+ * second. Before drawing, each channel is reduced to the lowest and highest
+ * reading for each column of pixels, so the cost of drawing doesn't depend on
+ * how many readings are shown.
  * 
  * @author Matthew Flynn
- * @version January 22nd, 2018
+ * @version March 15th, 2018
  */
-class ReadingGraph extends JFrame {
+class ReadingGraph extends JFrame implements SampleRing.Handler {
     
-    private ChartPanel content;
+    private static final long serialVersionUID = 1L;
     
     /**
-     * Creates a new graph, displaying the data given
+     * The most times per second that the graph is redrawn
+     */
+    public static final int MAX_FPS = 30;
+    /**
+     * The default number of readings of each channel that are shown
+     */
+    public static final int DEFAULT_CAPACITY = 2048;
+    
+    private final ChartPanel content;
+    private final RingDataset dataset;
+    private final Timer timer;
+    
+    /**
+     * Creates a new graph of the given number of channels, showing the most
+     * recent readings of each
      * 
-     * @param  an array of results from the pulse sensor
+     * @param channels the number of channels to graph
+     * @param capacity the number of readings of each channel to show
      */
-    public ReadingGraph(short[] data) {
+    public ReadingGraph(int channels, int capacity) {
         super("Heart Rate Graph");
-        content = new ChartPanel(createChart(createDataset(data)));
-        content.setPreferredSize(new Dimension(500, 270));
+        dataset = new RingDataset(channels, capacity);
+        content = new ChartPanel(createChart(dataset, capacity));
+        content.setPreferredSize(new Dimension(800, 400));
         setContentPane(content);
+        timer = new Timer(1000 / MAX_FPS, e -> {
+            if (dataset.decimate(Math.max(1, content.getWidth()))) {
+                dataset.changed();
+            }
+        });
+        timer.start();
     }
     
-    private static XYDataset createDataset(short[] data) {
-        final XYSeries series = new XYSeries("data");
-        for (int i = 0;i < data.length;i++) {
-            series.add(i, data[i]);
+    /**
+     * Adds a reading to the graph. This only stores the reading, so it's
+     * cheap enough to call for every reading. Only one thread may add
+     * readings
+     * 
+     * @param time when the reading was taken (unused)
+     * @param channel the channel of the reading (readings of channels that
+     * aren't graphed are ignored)
+     * @param value the reading
+     */
+    @Override
+    public void onSample(long time, int channel, short value) {
+        if (channel < dataset.values.length) {
+            dataset.append(channel, value);
         }
-        final XYSeriesCollection ret = new XYSeriesCollection();
-        ret.addSeries(series);
-        return ret;
     }
     
-    private static JFreeChart createChart(final XYDataset data) {
+    @Override
+    public void dispose() {
+        timer.stop();
+        super.dispose();
+    }
+    
+    private static JFreeChart createChart(final RingDataset data, int capacity) {
         final JFreeChart chart = ChartFactory.createXYLineChart(
             "Heart Rate",
             "Sample #",
             "Pulse Sensor Output",
             data,
             PlotOrientation.VERTICAL,
-            false,
+            true,
             true,
             false
        );
        XYPlot plot = (XYPlot)chart.getPlot();
        plot.getRangeAxis().setRange(0.0, 4100.0);
+       plot.getDomainAxis().setRange(0.0, capacity);
        return chart;
     }
     
+    // a dataset that shows the lowest and highest reading of each column of
+    // pixels, taken from a ring of readings per channel
+    private static class RingDataset extends AbstractXYDataset {
+        
+        private static final long serialVersionUID = 1L;
+        
+        // the readings of each channel, and the number written so far. Written
+        // by the thread adding readings, and read by the Swing thread
+        private final short[][] values;
+        private final long[] written;
+        private volatile long version;
+        private final int capacity;
+        private long drawnVersion = -1;
+        // the points to draw: two per column, x then y
+        private double[] xs = new double[0];
+        private double[][] ys;
+        
+        private RingDataset(int channels, int capacity) {
+            values = new short[channels][capacity];
+            written = new long[channels];
+            ys = new double[channels][0];
+            this.capacity = capacity;
+        }
+        
+        private void append(int channel, short value) {
+            long n = written[channel];
+            values[channel][(int)(n % capacity)] = value;
+            written[channel] = n + 1;
+            // publishes the reading to the Swing thread
+            version++;
+        }
+        
+        // recomputes the points to draw, for the given number of columns.
+        // Returns whether anything changed
+        private boolean decimate(int columns) {
+            long current = version;
+            columns = Math.min(columns, capacity);
+            if (current == drawnVersion && xs.length == 2 * columns) {
+                return false;
+            }
+            drawnVersion = current;
+            if (xs.length != 2 * columns) {
+                xs = new double[2 * columns];
+                ys = new double[values.length][2 * columns];
+            }
+            for (int c = 0;c < columns;c++) {
+                xs[2 * c] = xs[2 * c + 1] = (double)c * capacity / columns;
+            }
+            for (int ch = 0;ch < values.length;ch++) {
+                short[] ring = values[ch];
+                double[] y = ys[ch];
+                // the oldest reading still in the ring is drawn at x = 0
+                long end = written[ch];
+                long start = Math.max(0, end - capacity);
+                for (int c = 0;c < columns;c++) {
+                    long from = start + (long)c * capacity / columns;
+                    long to = Math.min(end, start + (long)(c + 1) * capacity / columns);
+                    int min = Integer.MAX_VALUE;
+                    int max = Integer.MIN_VALUE;
+                    for (long i = from;i < to;i++) {
+                        int v = ring[(int)(i % capacity)];
+                        min = Math.min(min, v);
+                        max = Math.max(max, v);
+                    }
+                    y[2 * c] = from < to ? min : Double.NaN;
+                    y[2 * c + 1] = from < to ? max : Double.NaN;
+                }
+            }
+            return true;
+        }
+        
+        private void changed() {
+            fireDatasetChanged();
+        }
+        
+        @Override
+        public int getSeriesCount() {
+            return values.length;
+        }
+        
+        @Override
+        public Comparable<?> getSeriesKey(int series) {
+            return "channel " + series;
+        }
+        
+        @Override
+        public int getItemCount(int series) {
+            return xs.length;
+        }
+        
+        @Override
+        public Number getX(int series, int item) {
+            return xs[item];
+        }
+        
+        @Override
+        public Number getY(int series, int item) {
+            return ys[series][item];
+        }
+        
+        @Override
+        public double getXValue(int series, int item) {
+            return xs[item];
+        }
+        
+        @Override
+        public double getYValue(int series, int item) {
+            return ys[series][item];
+        }
+        
+    }
+    
+    /**
+     * For testing: reads all 8 channels of an MCP3208 at a fixed rate and
+     * graphs them live
+     * 
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        MCP3208 adc = new MCP3208(21, 22, 23, 24);
+        PulseSensor[] sensors = SoundPlayer.sequentialSensors(MCP3208.CHANNELS, adc);
+        ReadingGraph graph = new ReadingGraph(sensors.length, DEFAULT_CAPACITY);
+        graph.pack();
+        graph.setVisible(true);
+        SampleRing ring = new SampleRing(4096);
+        new Sampler(sensors, SoundPlayer.DEFAULT_SAMPLE_RATE, ring).start();
+        while (true) {
+            if (ring.drain(graph, ring.capacity()) == 0) {
+                LockSupport.parkNanos(1000000);
+            }
+        }
+    }
+    
 }
@@ -0,0 +1,133 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ShortBuffer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * A decoded audio sample, ready to be mixed by an <code>AudioEngine</code>.
+ * The audio is held as 16-bit signed PCM, with the channels interleaved, in
+ * the sample rate and channel count of <code>AudioEngine.FORMAT</code>. No
+ * matter what format the original sound file was in, once it is a
+ * <code>Sample</code> it can be played without any more decoding.
+ *
+ * @see AudioEngine
+ * @author Matthew Flynn
+ * @version February 3rd, 2018
+ */
+public final class Sample {
+
+    /**
+     * The length of this sample, in frames (one frame holds one value for
+     * every channel)
+     */
+    public final int frames;
+    // the interleaved PCM data. Read only with absolute gets, so that many
+    // voices can play the same sample at once
+    final ShortBuffer pcm;
+
+    /**
+     * Constructs a <code>Sample</code> from PCM data that is already in the
+     * format of <code>AudioEngine.FORMAT</code>
+     *
+     * @param pcm the interleaved 16-bit PCM data of the sample
+     */
+    public Sample(short[] pcm) {
+        this(ShortBuffer.wrap(pcm));
+    }
+
+    /**
+     * @return the amount of memory taken up by this sample's audio, in bytes
+     */
+    public long getSizeInBytes() {
+        return 2L * pcm.limit();
+    }
+
+    // whether the audio is read from a mapped file, rather than held on the
+    // heap
+    boolean isMapped() {
+        return pcm.isDirect();
+    }
+
+    // constructs a sample around a buffer of interleaved PCM data
+    Sample(ShortBuffer pcm) {
+        this.pcm = pcm;
+        frames = pcm.limit() / AudioEngine.CHANNELS;
+    }
+
+    /**
+     * Loads a sound file and decodes it into a <code>Sample</code>
+     *
+     * @param soundFile the sound file to decode
+     * @return the decoded sample
+     * @throws IOException if the file could not be read
+     * @throws UnsupportedAudioFileException if the file is not an audio file,
+     * or is in a format that can't be converted to <code>AudioEngine.FORMAT
+     * </code>
+     */
+    public static Sample decode(File soundFile) throws IOException,
+            UnsupportedAudioFileException {
+        try (AudioInputStream inStream = AudioSystem.getAudioInputStream(soundFile)) {
+            return decode(inStream);
+        }
+    }
+
+    /**
+     * Decodes all of the remaining audio in a stream into a <code>Sample
+     * </code>. The stream is not closed.
+     *
+     * @param source the stream to decode
+     * @return the decoded sample
+     * @throws IOException if the stream could not be read
+     * @throws UnsupportedAudioFileException if the stream's format can't be
+     * converted to <code>AudioEngine.FORMAT</code>
+     */
+    public static Sample decode(AudioInputStream source) throws IOException,
+            UnsupportedAudioFileException {
+        AudioFormat original = source.getFormat();
+        int channels = original.getChannels();
+        AudioInputStream in;
+        // first convert to 16-bit signed little-endian PCM, then to the
+        // engine's sample rate. The channels are handled by hand, since the
+        // conversion providers don't reliably turn mono into stereo
+        try {
+            in = AudioSystem.getAudioInputStream(new AudioFormat(
+                original.getSampleRate(), 16, channels, true, false), source);
+            if (original.getSampleRate() != AudioEngine.SAMPLE_RATE) {
+                in = AudioSystem.getAudioInputStream(new AudioFormat(
+                    AudioEngine.SAMPLE_RATE, 16, channels, true, false), in);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedAudioFileException("Cannot convert "
+                + original + " to " + AudioEngine.FORMAT);
+        }
+        byte[] bytes = readFully(in);
+        int frames = bytes.length / (2 * channels);
+        short[] pcm = new short[frames * AudioEngine.CHANNELS];
+        for (int f = 0;f < frames;f++) {
+            for (int c = 0;c < AudioEngine.CHANNELS;c++) {
+                // a mono file plays the same data in every channel
+                int i = 2 * (f * channels + Math.min(c, channels - 1));
+                pcm[f * AudioEngine.CHANNELS + c] =
+                    (short)((bytes[i] & 0xFF) | (bytes[i + 1] << 8));
+            }
+        }
+        return new Sample(pcm);
+    }
+
+    // reads all of the bytes remaining in a stream
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            ret.write(buffer, 0, count);
+        }
+        return ret.toByteArray();
+    }
+
+}
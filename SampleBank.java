@@ -0,0 +1,330 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * A single file holding the decoded audio of every root sound file of every
+ * instrument (see <code>Instrument.rootOf</code>). Loading dozens of
+ * individual sound files at boot is slow, so they are decoded once, by
+ * <code>pack</code>, and the result is mapped straight into memory whenever
+ * the program starts. The samples served by a
+ * bank read directly from the mapped file, so nothing is copied or decoded.
+ * <p>
+ * The file begins with a header, followed by the raw PCM of every sample (in
+ * the format of <code>AudioEngine.FORMAT</code>). All values are
+ * little-endian:
+ * <pre>
+ *   8 bytes   magic ("MFTHBANK")
+ *   int       version
+ *   int       sample rate (Hz)
+ *   int       channels
+ *   long      stamp of the sound files the bank was built from
+ *   int       number of instruments
+ *   for each instrument:
+ *     short   length of the name, in bytes
+ *     bytes   name (UTF-8)
+ *     int     number of samples
+ *     for each sample:
+ *       int   MIDI code of the pitch
+ *       long  offset of the PCM data from the start of the file
+ *       int   length of the PCM data, in 16-bit values
+ * </pre>
+ *
+ * @see Instrument
+ * @author Matthew Flynn
+ * @version February 10th, 2018
+ */
+public class SampleBank {
+
+    /**
+     * The name of the bank file that <code>loadOrBuild</code> uses by default,
+     * inside <code>Instrument.ALL_SAMPLES</code>
+     */
+    public static final String DEFAULT_NAME = "samples.bank";
+
+    private static final byte[] MAGIC =
+        "MFTHBANK".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    // the stamp of the sound files that the bank was built from
+    private final long stamp;
+    // maps an instrument's name to its samples, indexed by MIDI code
+    private final Map<String, Sample[]> samples = new HashMap<>();
+    private final long sizeInBytes;
+
+    // maps a bank file and reads its header. A header that's cut short or
+    // points outside the file is reported as an IOException, like any other
+    // unreadable bank
+    private SampleBank(File bankFile) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(bankFile.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(bankFile + " is too large to map");
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        sizeInBytes = map.capacity();
+        try {
+            stamp = readHeader(bankFile, map);
+        } catch (RuntimeException e) {
+            throw new IOException(bankFile + " is corrupt", e);
+        }
+    }
+
+    // reads the header of a mapped bank, and makes a sample for every entry
+    // in it. Returns the stamp
+    private long readHeader(File bankFile, MappedByteBuffer map) throws IOException {
+        ByteBuffer header = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(bankFile + " is not a sample bank");
+        }
+        if (header.getInt() != VERSION
+                || header.getInt() != (int)AudioEngine.SAMPLE_RATE
+                || header.getInt() != AudioEngine.CHANNELS) {
+            throw new IOException(bankFile + " is in an unsupported format");
+        }
+        long ret = header.getLong();
+        int instruments = header.getInt();
+        if (instruments < 0 || instruments > Instrument.values().length) {
+            throw new IOException(bankFile + " is corrupt (" + instruments
+                + " instruments)");
+        }
+        for (int i = 0;i < instruments;i++) {
+            int nameLength = header.getShort() & 0xFFFF;
+            if (nameLength > header.remaining()) {
+                throw new IOException(bankFile + " is corrupt (name too long)");
+            }
+            byte[] name = new byte[nameLength];
+            header.get(name);
+            Sample[] bySample = new Sample[Pitch.values().length];
+            int count = header.getInt();
+            if (count < 0 || count > bySample.length) {
+                throw new IOException(bankFile + " is corrupt (" + count + " samples)");
+            }
+            for (int j = 0;j < count;j++) {
+                int midi = header.getInt();
+                long offset = header.getLong();
+                long length = header.getInt();
+                if (midi < 0 || midi >= bySample.length || offset < header.position()
+                        || length < 0 || offset + 2 * length > sizeInBytes) {
+                    throw new IOException(bankFile + " is corrupt (sample " + midi
+                        + " at " + offset + ", " + length + " values)");
+                }
+                ByteBuffer data = map.duplicate();
+                data.position((int)offset).limit((int)(offset + 2 * length));
+                bySample[midi] = new Sample(data.slice()
+                    .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+            }
+            samples.put(new String(name, StandardCharsets.UTF_8), bySample);
+        }
+        return ret;
+    }
+
+    /**
+     * Maps an existing bank file into memory
+     *
+     * @param bankFile the bank file, as written by <code>pack</code>
+     * @return the mapped bank
+     * @throws IOException if the file can't be read, or isn't a bank that
+     * this version of the program can use
+     */
+    public static SampleBank open(File bankFile) throws IOException {
+        return new SampleBank(bankFile);
+    }
+
+    /**
+     * Maps a bank file into memory, first rebuilding it from the sound files
+     * if it doesn't exist, or if any sound file has changed since it was
+     * built
+     *
+     * @param samplesDir the folder holding one folder of sound files per
+     * instrument (normally <code>Instrument.ALL_SAMPLES</code>)
+     * @param bankFile the bank file
+     * @return the mapped bank
+     * @throws IOException if the bank can't be read or written
+     */
+    public static SampleBank loadOrBuild(File samplesDir, File bankFile)
+            throws IOException {
+        long current = stampOf(samplesDir);
+        if (bankFile.isFile()) {
+            try {
+                SampleBank ret = open(bankFile);
+                if (ret.stamp == current) {
+                    return ret;
+                }
+            } catch (IOException e) {
+                // an unreadable bank is simply rebuilt
+            }
+        }
+        pack(samplesDir, bankFile);
+        return open(bankFile);
+    }
+
+    /**
+     * Decodes the sound file of every root of every instrument and writes
+     * them all into a single bank file. The bank is written to a temporary
+     * file first, so that a running program never sees it half-written
+     *
+     * @param samplesDir the folder holding one folder of sound files per
+     * instrument (normally <code>Instrument.ALL_SAMPLES</code>)
+     * @param bankFile the bank file to write
+     * @throws IOException if a sound file can't be read, or the bank can't
+     * be written
+     */
+    public static void pack(File samplesDir, File bankFile) throws IOException {
+        // find every sound file, so that the size of the header is known
+        // before any audio is written
+        List<List<Pitch>> pitches = new ArrayList<>();
+        int headerSize = MAGIC.length + 4 + 4 + 4 + 8 + 4;
+        for (Instrument instrument : Instrument.values()) {
+            List<Pitch> found = new ArrayList<>();
+            for (Pitch p : Pitch.values()) {
+                if (instrument.fileOf(samplesDir, p).isFile()) {
+                    found.add(p);
+                }
+            }
+            pitches.add(found);
+            headerSize += 2 + utf8(instrument.instrumentName).length + 4
+                + found.size() * (4 + 8 + 4);
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerSize)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt((int)AudioEngine.SAMPLE_RATE)
+            .putInt(AudioEngine.CHANNELS).putLong(stampOf(samplesDir))
+            .putInt(Instrument.values().length);
+        File temp = new File(bankFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the audio is streamed out one file at a time, after the header
+            long offset = headerSize;
+            for (Instrument instrument : Instrument.values()) {
+                List<Pitch> found = pitches.get(instrument.ordinal());
+                byte[] name = utf8(instrument.instrumentName);
+                header.putShort((short)name.length).put(name)
+                    .putInt(found.size());
+                for (Pitch p : found) {
+                    ByteBuffer pcm = encode(decode(instrument.fileOf(samplesDir, p)));
+                    header.putInt(p.MIDICode).putLong(offset)
+                        .putInt(pcm.remaining() / 2);
+                    while (pcm.hasRemaining()) {
+                        offset += out.write(pcm, offset);
+                    }
+                }
+            }
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += out.write(header, position);
+            }
+            out.force(true);
+        }
+        Files.move(temp.toPath(), bankFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Gets a sample from this bank. The sample reads directly from the mapped
+     * file
+     *
+     * @param instrument the instrument of the sample
+     * @param p the pitch of the sample
+     * @return the sample, or null if the bank doesn't have it
+     */
+    public Sample getSample(Instrument instrument, Pitch p) {
+        Sample[] bySample = samples.get(instrument.instrumentName);
+        return bySample == null ? null : bySample[p.MIDICode];
+    }
+
+    /**
+     * @return the size of the mapped bank file, in bytes
+     */
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * Computes a stamp of the sound files in a samples folder, from the name,
+     * size and modification time of every root's file (the files that a bank
+     * would include). If any of those files change, the stamp changes
+     *
+     * @param samplesDir the folder holding one folder of sound files per
+     * instrument
+     * @return the stamp
+     */
+    public static long stampOf(File samplesDir) {
+        long ret = 17;
+        for (Instrument instrument : Instrument.values()) {
+            ret = 31 * ret + instrument.instrumentName.hashCode();
+            for (Pitch p : Pitch.values()) {
+                File soundFile = instrument.fileOf(samplesDir, p);
+                if (soundFile.isFile()) {
+                    ret = 31 * ret + p.MIDICode;
+                    ret = 31 * ret + soundFile.length();
+                    ret = 31 * ret + soundFile.lastModified();
+                }
+            }
+        }
+        return ret;
+    }
+
+    // decodes a sound file, treating an undecodable file as unreadable
+    private static Sample decode(File soundFile) throws IOException {
+        try {
+            return Sample.decode(soundFile);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Cannot decode " + soundFile, e);
+        }
+    }
+
+    // copies a sample's PCM into a little-endian byte buffer, ready to write
+    private static ByteBuffer encode(Sample sample) {
+        ByteBuffer ret = ByteBuffer.allocate((int)sample.getSizeInBytes())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0;i < sample.pcm.limit();i++) {
+            ret.putShort(sample.pcm.get(i));
+        }
+        ret.flip();
+        return ret;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Packs the sound files into a bank. Run this after changing any sound
+     * files to avoid rebuilding the bank at the next boot
+     *
+     * @param args optionally, the samples folder and then the bank file
+     * (these default to <code>Instrument.ALL_SAMPLES</code> and a file named
+     * <code>DEFAULT_NAME</code> inside it)
+     * @throws IOException if the bank can't be built
+     */
+    public static void main(String[] args) throws IOException {
+        File samplesDir = new File(args.length > 0 ? args[0] : Instrument.ALL_SAMPLES);
+        File bankFile = args.length > 1 ? new File(args[1])
+            : new File(samplesDir, DEFAULT_NAME);
+        long start = System.nanoTime();
+        pack(samplesDir, bankFile);
+        System.out.println("Packed " + bankFile.length() + " bytes into "
+            + bankFile + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+}
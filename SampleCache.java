@@ -0,0 +1,366 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * The decoded samples of every instrument, shared between all of them. Looking
+ * up a sample never blocks and never loads anything on the caller's thread:
+ * if the sample isn't loaded yet, <code>get</code> returns null and the
+ * sample is loaded in the background, by a small pool of loader threads.
+ * Anything that can wait for a sample uses <code>load</code> instead, which
+ * returns a future.
+ * <p>
+ * The samples decoded into memory are kept under a budget. When a load takes
+ * them over it, the samples used longest ago are evicted, across every
+ * instrument; they're simply loaded again if they're needed. Samples served
+ * from a memory-mapped <code>SampleBank</code> don't count towards the budget,
+ * since the operating system pages them in and out by itself.
+ * <p>
+ * A sample that can't be loaded is reported once, and isn't tried again until
+ * it's explicitly loaded with <code>load</code>. Its future fails with the
+ * reason.
+ * 
+ * @see Instrument
+ * @author Matthew Flynn
+ * @version April 2nd, 2018
+ */
+public class SampleCache {
+    
+    /**
+     * The default memory budget for decoded samples, in bytes
+     */
+    public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+    
+    // the number of loads that can wait for a loader thread
+    private static final int LOAD_QUEUE_SIZE = 512;
+    // keys are the instrument's ordinal * PITCHES + the MIDI code
+    private static final int PITCHES = Pitch.values().length;
+    // what an entry's charge is set to once it has left the cache
+    private static final long RELEASED = -1;
+    
+    // one cached sample (or a load of one). The future is completed once,
+    // and the entry is replaced rather than changed if the sample is loaded
+    // again
+    private static final class Entry {
+        
+        private final CompletableFuture<Sample> future = new CompletableFuture<>();
+        // when the sample was last looked up, by the cache's clock
+        private volatile long lastUsed;
+        // the bytes counted as resident for the sample, or RELEASED once the
+        // entry has left the cache, so that a sample that finishes loading
+        // after its entry was replaced is never counted
+        private final AtomicLong charged = new AtomicLong();
+        
+        // the sample, or null if it's still loading or failed to load
+        private Sample sample() {
+            return future.isDone() && !future.isCompletedExceptionally()
+                ? future.getNow(null) : null;
+        }
+        
+    }
+    
+    private final AtomicReferenceArray<Entry> entries;
+    private final long budget;
+    private final ThreadPoolExecutor loaders;
+    // counts lookups, to order the entries by when they were last used
+    private final AtomicLong clock = new AtomicLong();
+    // the total size of the decoded (not mapped) samples held
+    private final AtomicLong residentBytes = new AtomicLong();
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    
+    /**
+     * Constructs a <code>SampleCache</code>
+     * 
+     * @param budget the most memory that decoded samples may take up, in
+     * bytes
+     * @param loaderThreads the number of threads that load samples
+     */
+    public SampleCache(long budget, int loaderThreads) {
+        if (budget < 0 || loaderThreads < 1) {
+            throw new IllegalArgumentException("Invalid cache size (" + budget
+                + " bytes, " + loaderThreads + " loaders)");
+        }
+        this.budget = budget;
+        entries = new AtomicReferenceArray<>(Instrument.values().length * PITCHES);
+        loaders = new ThreadPoolExecutor(loaderThreads, loaderThreads,
+            0, TimeUnit.NANOSECONDS, new ArrayBlockingQueue<>(LOAD_QUEUE_SIZE),
+            r -> {
+                Thread ret = new Thread(r, "sample-loader");
+                ret.setDaemon(true);
+                return ret;
+            });
+    }
+    
+    /**
+     * Looks up a sample without blocking. If it isn't loaded, a load is
+     * started in the background (unless one already is, or the sample has
+     * already failed to load)
+     * 
+     * @param instrument the instrument
+     * @param p the pitch
+     * @return the sample, or null if it isn't loaded
+     */
+    public Sample get(Instrument instrument, Pitch p) {
+        int key = keyOf(instrument, p);
+        Entry entry = entries.get(key);
+        Sample ret = entry == null ? null : entry.sample();
+        if (ret != null) {
+            entry.lastUsed = clock.incrementAndGet();
+            hits.incrementAndGet();
+            return ret;
+        }
+        misses.incrementAndGet();
+        if (entry == null) {
+            start(key, null);
+        }
+        return null;
+    }
+    
+    /**
+     * Gets a sample, loading it in the background if it isn't loaded. A
+     * sample that failed to load before is tried again
+     * 
+     * @param instrument the instrument
+     * @param p the pitch
+     * @return a future that completes with the sample, or fails with the
+     * reason it couldn't be loaded (an <code>IOException</code>, or a
+     * <code>RejectedExecutionException</code> if too many loads are waiting)
+     */
+    public CompletableFuture<Sample> load(Instrument instrument, Pitch p) {
+        int key = keyOf(instrument, p);
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.future.isCompletedExceptionally()) {
+            entry.lastUsed = clock.incrementAndGet();
+            return entry.future;
+        }
+        return start(key, entry);
+    }
+    
+    /**
+     * Puts a sample that's already loaded into the cache, replacing anything
+     * it held for the same instrument and pitch
+     * 
+     * @param instrument the instrument
+     * @param p the pitch
+     * @param sample the sample
+     */
+    public void put(Instrument instrument, Pitch p, Sample sample) {
+        Entry entry = new Entry();
+        entry.lastUsed = clock.incrementAndGet();
+        entry.future.complete(sample);
+        Entry old = entries.getAndSet(keyOf(instrument, p), entry);
+        release(old);
+        charge(entry, sample);
+        trim(entry);
+    }
+    
+    /**
+     * @param instrument the instrument
+     * @param p the pitch
+     * @return whether the sample is loaded
+     */
+    public boolean contains(Instrument instrument, Pitch p) {
+        Entry entry = entries.get(keyOf(instrument, p));
+        return entry != null && entry.sample() != null;
+    }
+    
+    // starts loading the sample with the given key, unless another thread
+    // already has. The entry expected in the slot is replaced
+    private CompletableFuture<Sample> start(int key, Entry expected) {
+        Entry entry = new Entry();
+        entry.lastUsed = clock.incrementAndGet();
+        if (!entries.compareAndSet(key, expected, entry)) {
+            Entry current = entries.get(key);
+            return current == null ? start(key, null) : current.future;
+        }
+        try {
+            loaders.execute(() -> finish(key, entry));
+        } catch (RejectedExecutionException e) {
+            // too busy. Give up for now, so that the next lookup tries again
+            entries.compareAndSet(key, entry, null);
+            entry.future.completeExceptionally(e);
+        }
+        return entry.future;
+    }
+    
+    // loads a sample on a loader thread, and completes its entry
+    private void finish(int key, Entry entry) {
+        Instrument instrument = Instrument.values()[key / PITCHES];
+        Pitch p = Pitch.fromMidi(key % PITCHES);
+        long start = System.nanoTime();
+        Sample sample;
+        try {
+            sample = instrument.patch != null ? instrument.patch.render(p)
+                : decode(instrument.getFile(p));
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            System.out.println("Could not load " + instrument + " " + p + ": " + e);
+            entry.future.completeExceptionally(e);
+            return;
+        }
+        loads.incrementAndGet();
+        loadNanos.addAndGet(System.nanoTime() - start);
+        charge(entry, sample);
+        // make room before anyone waiting on the sample sees it
+        trim(entry);
+        entry.future.complete(sample);
+    }
+    
+    // evicts the least recently used samples until the decoded samples fit
+    // in the budget. The given entry is kept, even if it doesn't fit alone
+    private void trim(Entry keep) {
+        while (residentBytes.get() > budget) {
+            int oldest = -1;
+            long oldestUse = Long.MAX_VALUE;
+            for (int i = 0;i < entries.length();i++) {
+                Entry entry = entries.get(i);
+                if (entry != null && entry != keep && entry.lastUsed < oldestUse
+                        && entry.charged.get() > 0) {
+                    oldest = i;
+                    oldestUse = entry.lastUsed;
+                }
+            }
+            if (oldest < 0) {
+                return;
+            }
+            Entry evicted = entries.get(oldest);
+            if (entries.compareAndSet(oldest, evicted, null)) {
+                release(evicted);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+    
+    // counts an entry's sample as resident, unless the entry has already
+    // left the cache
+    private void charge(Entry entry, Sample sample) {
+        long bytes = decodedBytes(sample);
+        if (bytes > 0 && entry.charged.compareAndSet(0, bytes)) {
+            residentBytes.addAndGet(bytes);
+        }
+    }
+    
+    // stops counting an entry's sample as resident. Whichever of this and
+    // charge runs first decides whether the sample was ever counted
+    private void release(Entry entry) {
+        if (entry != null) {
+            long bytes = entry.charged.getAndSet(RELEASED);
+            if (bytes > 0) {
+                residentBytes.addAndGet(-bytes);
+            }
+        }
+    }
+    
+    // the memory a sample takes up outside of any mapped file
+    private static long decodedBytes(Sample sample) {
+        return sample == null || sample.isMapped() ? 0 : sample.getSizeInBytes();
+    }
+    
+    private static int keyOf(Instrument instrument, Pitch p) {
+        return instrument.ordinal() * PITCHES + p.MIDICode;
+    }
+    
+    // decodes a sound file, treating an undecodable file as unreadable
+    private static Sample decode(File soundFile) throws IOException {
+        try {
+            return Sample.decode(soundFile);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Cannot decode " + soundFile, e);
+        }
+    }
+    
+    /**
+     * @return the total size of the decoded samples held, in bytes (samples
+     * served from a mapped bank aren't counted)
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+    
+    /**
+     * @param instrument an instrument
+     * @return the total size of the decoded samples held for the instrument,
+     * in bytes
+     */
+    public long getResidentBytes(Instrument instrument) {
+        long ret = 0;
+        for (int i = 0;i < PITCHES;i++) {
+            Entry entry = entries.get(instrument.ordinal() * PITCHES + i);
+            if (entry != null) {
+                ret += Math.max(0, entry.charged.get());
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * @return the most memory that decoded samples may take up, in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+    
+    /**
+     * @return the number of lookups that found their sample loaded
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    
+    /**
+     * @return the number of lookups that didn't find their sample loaded
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * @return the number of samples evicted to stay within the budget
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+    
+    /**
+     * @return the number of loads that failed
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+    
+    /**
+     * @return the number of samples loaded
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+    
+    /**
+     * @return the total time spent loading samples, in nanoseconds
+     */
+    public long getLoadNanos() {
+        return loadNanos.get();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("samples: %d hits, %d misses, %d loads (%d failed), "
+            + "%d evictions, %d of %d bytes resident", getHits(), getMisses(),
+            getLoads(), getFailures(), getEvictions(), getResidentBytes(), budget);
+    }
+    
+}
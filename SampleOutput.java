@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>NoteOutput</code> that plays our own samples, mixed by an
+ * <code>AudioEngine</code>. Notes of synthesized instruments are rendered by
+ * the engine instead. Pitches without a sample of their own are shifted
+ * from the instrument's nearest root. Every note plays to the end, so
+ * <code>noteOff</code> does nothing.
+ * <p>
+ * A note never waits for its sample to load. If the sample isn't in the
+ * instrument cache yet, the note is skipped (and counted), and the sample is
+ * loaded in the background for the next press.
+ * 
+ * @see AudioEngine
+ * @see Instrument
+ * @author Matthew Flynn
+ * @version March 22nd, 2018
+ */
+public class SampleOutput implements NoteOutput {
+    
+    /**
+     * The quietest that a note is played, for the lightest press
+     */
+    public static final float MIN_GAIN = 0.3f;
+    
+    private final AudioEngine engine;
+    // the notes skipped because their sample wasn't loaded
+    private final AtomicLong missedNotes = new AtomicLong();
+    
+    /**
+     * Constructs a <code>SampleOutput</code>
+     * 
+     * @param engine a started engine to play the samples through
+     */
+    public SampleOutput(AudioEngine engine) {
+        this.engine = engine;
+    }
+    
+    @Override
+    public void noteOn(Instrument instrument, Pitch p, float velocity, long time) {
+        float gain = MIN_GAIN + (1 - MIN_GAIN) * velocity;
+        if (instrument.patch != null) {
+            engine.play(instrument, p, gain, time);
+            return;
+        }
+        long start = System.nanoTime();
+        Pitch root = instrument.rootOf(p);
+        Sample sound = Instrument.getCache().get(instrument, root);
+        Metrics.SAMPLE_LOOKUP.record(System.nanoTime() - start);
+        if (sound == null) {
+            missedNotes.incrementAndGet();
+            return;
+        }
+        // the engine starts the note at the beginning of its next period, and
+        // mixes it alongside anything that's already playing, shifted from
+        // the root's pitch to the note's
+        engine.play(instrument, sound, p.MIDICode - root.MIDICode, gain, time);
+    }
+    
+    @Override
+    public void noteOff(Instrument instrument, Pitch p, long time) {
+        // samples always play to the end
+    }
+    
+    /**
+     * @return the number of notes skipped because their sample wasn't loaded
+     * yet (or couldn't be)
+     */
+    public long getMissedNotes() {
+        return missedNotes.get();
+    }
+    
+    /**
+     * @return the engine that the samples are played through
+     */
+    public AudioEngine getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Stops the engine
+     */
+    @Override
+    public void close() {
+        engine.stop();
+    }
+    
+}
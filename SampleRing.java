@@ -0,0 +1,130 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size queue of sensor readings, passed from one thread that takes
+ * the readings to one thread that uses them. Each reading is a timestamp, a
+ * channel and a value, stored in preallocated primitive arrays, so nothing is
+ * allocated and no locks are taken on either side.
+ * <p>
+ * Only one thread may call <code>offer</code>, and only one thread may call
+ * <code>drain</code>. If the queue is full, the new reading is dropped and
+ * counted, rather than making the producer wait.
+ * 
+ * @see Sampler
+ * @author Matthew Flynn
+ * @version February 19th, 2018
+ */
+public class SampleRing {
+    
+    /**
+     * Receives readings as they're taken from a <code>SampleRing</code>
+     */
+    public interface Handler {
+        /**
+         * Handles one reading
+         * 
+         * @param time when the reading was taken (<code>System.nanoTime</code>)
+         * @param channel the channel that the reading came from
+         * @param value the value of the reading
+         */
+        void onSample(long time, int channel, short value);
+    }
+    
+    private final long[] times;
+    private final int[] channels;
+    private final short[] values;
+    // the capacity is a power of two, so a position is turned into an index
+    // by masking
+    private final int mask;
+    // the next position to read, and the next position to write
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // only written by the producer
+    private volatile long dropped;
+    
+    /**
+     * Constructs a <code>SampleRing</code>
+     * 
+     * @param capacity the number of readings that can be held at once (rounded
+     * up to a power of two)
+     */
+    public SampleRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity (" + capacity + ")");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        times = new long[size];
+        channels = new int[size];
+        values = new short[size];
+        mask = size - 1;
+    }
+    
+    /**
+     * Adds a reading to the queue. Only the producer thread may call this
+     * 
+     * @param time when the reading was taken (<code>System.nanoTime</code>)
+     * @param channel the channel that the reading came from
+     * @param value the value of the reading
+     * @return whether the reading was added, or dropped because the queue was
+     * full
+     */
+    public boolean offer(long time, int channel, short value) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped++;
+            return false;
+        }
+        int i = (int)t & mask;
+        times[i] = time;
+        channels[i] = channel;
+        values[i] = value;
+        // publishes the reading to the consumer
+        tail.lazySet(t + 1);
+        return true;
+    }
+    
+    /**
+     * Takes readings off the queue and passes them to a handler, in the order
+     * they were added. Only the consumer thread may call this
+     * 
+     * @param handler the handler to pass the readings to
+     * @param max the most readings to take
+     * @return the number of readings taken
+     */
+    public int drain(Handler handler, int max) {
+        long h = head.get();
+        int count = (int)Math.min(tail.get() - h, max);
+        for (int n = 0;n < count;n++) {
+            int i = (int)(h + n) & mask;
+            handler.onSample(times[i], channels[i], values[i]);
+        }
+        // frees the slots for the producer
+        head.lazySet(h + count);
+        return count;
+    }
+    
+    /**
+     * @return the number of readings waiting to be taken
+     */
+    public int size() {
+        return (int)(tail.get() - head.get());
+    }
+    
+    /**
+     * @return the number of readings that can be held at once
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * @return the number of readings dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+    
+}
@@ -0,0 +1,466 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a set of pulse sensors at a fixed rate, on its own thread, and
+ * publishes every reading into a <code>SampleRing</code>. Nothing that happens
+ * to the readings afterwards (detecting presses, starting notes) can delay the
+ * next reading.
+ * <p>
+ * Each reading's channel is the index of its sensor in the array given to the
+ * constructor. The sensors are grouped by MCP3208, and each MCP3208 is read
+ * with one scan. The MCP3208s are read one after another, so when several
+ * share a bus (see <code>MCP3208Bus</code>), every chip is read once per pass.
+ * The rate can't be higher than the time it takes to scan all of them allows,
+ * which <code>getMeanScanNanos</code> shows.
+ * <p>
+ * The sampler keeps track of how well it holds its rate: the jitter (how late
+ * each scan starts compared to when it should have), and the number of
+ * overruns (scans skipped entirely because the previous one ran too late).
+ * Readings dropped because the ring was full are counted by the ring.
+ * <p>
+ * Given a <code>ScanFilter</code>, the readings of each scan are filtered
+ * together before they're published, so that detection only ever sees the
+ * cleaned-up readings. The raw readings can still be published to a second
+ * ring (to be recorded, say) with <code>setRawRing</code>.
+ * <p>
+ * Given an idle rate, the sampler slows down to it while nobody is touching
+ * the sensors, to save CPU (and heat). It follows the resting level of every
+ * sensor, and as soon as any reading strays from its resting level it goes
+ * straight back to the full rate, and wakes the detection thread. (A level
+ * that stays away for good, say after a sensor is moved, slowly becomes the
+ * new resting level, so it doesn't keep the sampler awake.) It only
+ * slows down again once every sensor has been quiet for <code>QUIET_NANOS
+ * </code>. The current mode, and how much CPU the sampler uses, can be
+ * watched with <code>getMode</code> and <code>getCpuLoad</code>.
+ * <p>
+ * Between scans the thread sleeps, and only spins for the last moment
+ * before a scan is due. How long it spins is calibrated as it runs, from how
+ * late the sleeps actually wake up, so it spins no longer than it has to.
+ * 
+ * @see SampleRing
+ * @author Matthew Flynn
+ * @version February 19th, 2018
+ */
+public class Sampler implements Runnable {
+    
+    /**
+     * How fast the sampler is reading the sensors
+     */
+    public enum Mode {
+        /** reading at the full rate */
+        ACTIVE,
+        /** reading at the idle rate, since every sensor is at rest */
+        IDLE
+    }
+    
+    /**
+     * How long every sensor must be at rest before the sampler slows down to
+     * its idle rate, in nanoseconds
+     */
+    public static final long QUIET_NANOS = 2000000000L;
+    // how long each sleep is cut short at first, to spin the rest of the way,
+    // and the limits of the calibration
+    private static final long SPIN_NANOS = 200000;
+    private static final long MIN_SPIN_NANOS = 20000;
+    private static final long MAX_SPIN_NANOS = 1000000;
+    // a reading is activity if it's this many deviations from its sensor's
+    // resting level, and at least MIN_ACTIVITY away
+    private static final float ACTIVITY_DEVIATIONS = 6;
+    private static final int MIN_ACTIVITY = 40;
+    // a filtered reading changing this fast (in ADC steps per millisecond) is
+    // the start of a press, even before it's strayed far from its resting
+    // level
+    private static final float ONSET_SLOPE = 8;
+    // roughly how far back the readings that the resting levels are based on
+    // go, in nanoseconds. The same at the full rate and the idle rate
+    private static final long BASELINE_NANOS = 250000000L;
+    // the time constant that a resting level follows activity with, so that
+    // a lasting change in a sensor's level stops being activity after a
+    // while, but a press hardly moves it
+    private static final long DRIFT_NANOS = 30000000000L;
+    // how often the CPU load is worked out
+    private static final long CPU_NANOS = 1000000000L;
+    
+    private final SampleRing ring;
+    private final long periodNanos;
+    private final long idlePeriodNanos;
+    // every MCP3208 that the sensors are connected to, the channels of each
+    // one that need to be scanned, and the results of the last scan
+    private final MCP3208[] adcs;
+    private final int[] channelMasks;
+    private final short[][] readings;
+    // the index into adcs of each sensor's MCP3208, and each sensor's channel
+    private final int[] adcOfSensor;
+    private final int[] channelOfSensor;
+    // the resting level of each sensor
+    private final BaselineTracker[] baselines;
+    // the reading of each sensor in the current scan, and the filter that
+    // cleans them up (if any)
+    private final short[] values;
+    private ScanFilter filter;
+    // where the readings are published before they're filtered, if anywhere
+    private SampleRing rawRing;
+    
+    private volatile boolean running = true;
+    private volatile Mode mode = Mode.ACTIVE;
+    // when the last activity was seen
+    private long lastActive;
+    // woken as soon as activity is seen, if not null
+    private volatile Thread waiter;
+    // how long each sleep is cut short by
+    private long spinNanos = SPIN_NANOS;
+    private volatile double cpuLoad;
+    private volatile long modeChanges;
+    private volatile long scans;
+    private volatile long overruns;
+    private volatile long totalJitter;
+    private volatile long maxJitter;
+    private volatile long totalScanTime;
+    
+    /**
+     * Constructs a <code>Sampler</code> that always reads at the same rate
+     * 
+     * @param sensors the sensors to read
+     * @param rate the number of times per second to read every sensor
+     * @param ring where to publish the readings
+     */
+    public Sampler(PulseSensor[] sensors, int rate, SampleRing ring) {
+        this(sensors, rate, rate, ring);
+    }
+    
+    /**
+     * Constructs a <code>Sampler</code> that slows down while the sensors are
+     * at rest
+     * 
+     * @param sensors the sensors to read
+     * @param rate the number of times per second to read every sensor
+     * @param idleRate the number of times per second to read every sensor
+     * while they're all at rest (no more than <code>rate</code>)
+     * @param ring where to publish the readings
+     */
+    public Sampler(PulseSensor[] sensors, int rate, int idleRate, SampleRing ring) {
+        if (rate < 1 || idleRate < 1 || idleRate > rate) {
+            throw new IllegalArgumentException("Invalid sample rate (" + rate
+                + ", " + idleRate + " idle)");
+        }
+        this.ring = ring;
+        periodNanos = 1000000000L / rate;
+        idlePeriodNanos = 1000000000L / idleRate;
+        values = new short[sensors.length];
+        baselines = new BaselineTracker[sensors.length];
+        for (int i = 0;i < baselines.length;i++) {
+            baselines[i] = new BaselineTracker(BASELINE_NANOS);
+        }
+        // group the sensors by MCP3208, so each one can be read in one scan
+        List<MCP3208> found = new ArrayList<>();
+        adcOfSensor = new int[sensors.length];
+        channelOfSensor = new int[sensors.length];
+        for (int i = 0;i < sensors.length;i++) {
+            int index = found.indexOf(sensors[i].getAdc());
+            if (index < 0) {
+                index = found.size();
+                found.add(sensors[i].getAdc());
+            }
+            adcOfSensor[i] = index;
+            channelOfSensor[i] = sensors[i].getChannel();
+        }
+        adcs = found.toArray(new MCP3208[found.size()]);
+        channelMasks = new int[adcs.length];
+        readings = new short[adcs.length][MCP3208.CHANNELS];
+        for (int i = 0;i < sensors.length;i++) {
+            channelMasks[adcOfSensor[i]] |= 1 << channelOfSensor[i];
+        }
+    }
+    
+    /**
+     * Starts the sampler on a new thread
+     * 
+     * @return the thread the sampler runs on
+     */
+    public Thread start() {
+        Thread ret = new Thread(this, "sampler");
+        ret.setDaemon(true);
+        ret.setPriority(Thread.MAX_PRIORITY);
+        ret.start();
+        return ret;
+    }
+    
+    /**
+     * Sets the filter that every scan goes through before it's published.
+     * Call this before the sampler is started
+     * 
+     * @param filter the filter, with a channel for every sensor, or null to
+     * publish the raw readings
+     */
+    public void setFilter(ScanFilter filter) {
+        if (filter != null && filter.getChannels() != values.length) {
+            throw new IllegalArgumentException("The filter has "
+                + filter.getChannels() + " channels, but there are "
+                + values.length + " sensors");
+        }
+        this.filter = filter;
+    }
+    
+    /**
+     * Sets a second ring that every reading is published to as it was read,
+     * before it goes through the filter. Call this before the sampler is
+     * started
+     * 
+     * @param raw the ring, or null for none
+     */
+    public void setRawRing(SampleRing raw) {
+        rawRing = raw;
+    }
+    
+    /**
+     * Sets a thread to wake up (with <code>LockSupport.unpark</code>) as soon
+     * as the sampler sees activity, so that it doesn't have to poll quickly
+     * while the sampler is idle
+     * 
+     * @param thread the thread, or null for none
+     */
+    public void wakeOnActivity(Thread thread) {
+        waiter = thread;
+    }
+    
+    /**
+     * Stops the sampler after its current scan
+     */
+    public void stop() {
+        running = false;
+    }
+    
+    @Override
+    public void run() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean measureCpu = threads.isCurrentThreadCpuTimeSupported();
+        long due = System.nanoTime();
+        lastActive = due;
+        long cpuStart = measureCpu ? threads.getCurrentThreadCpuTime() : 0;
+        long cpuWall = due;
+        while (running) {
+            long period = mode == Mode.IDLE ? idlePeriodNanos : periodNanos;
+            waitUntil(due, mode == Mode.IDLE);
+            long now = System.nanoTime();
+            long late = now - due;
+            if (late > period) {
+                // too late to catch up. Skip the missed scans rather than
+                // bunching them together, which would distort the timing
+                long missed = late / period;
+                overruns += missed;
+                due += missed * period;
+                late -= missed * period;
+            }
+            totalJitter += late;
+            if (late > maxJitter) {
+                maxJitter = late;
+            }
+            boolean active = scan();
+            scans++;
+            if (idlePeriodNanos != periodNanos) {
+                updateMode(active, now);
+            }
+            // the next scan is due sooner if the sampler has just woken up
+            due += mode == Mode.IDLE ? idlePeriodNanos : periodNanos;
+            if (measureCpu && now - cpuWall >= CPU_NANOS) {
+                long cpu = threads.getCurrentThreadCpuTime();
+                cpuLoad = (double)(cpu - cpuStart) / (now - cpuWall);
+                cpuStart = cpu;
+                cpuWall = now;
+            }
+        }
+    }
+    
+    // reads every sensor once and publishes the readings. Returns whether any
+    // of them showed activity
+    private boolean scan() {
+        long busy = 0;
+        for (int i = 0;i < adcs.length;i++) {
+            adcs[i].scan(channelMasks[i], readings[i]);
+            long time = adcs[i].getScanEnd() - adcs[i].getScanStart();
+            Metrics.ADC_READ.record(time);
+            busy += time;
+        }
+        totalScanTime += busy;
+        for (int i = 0;i < values.length;i++) {
+            values[i] = readings[adcOfSensor[i]][channelOfSensor[i]];
+        }
+        SampleRing raw = rawRing;
+        if (raw != null) {
+            for (int i = 0;i < values.length;i++) {
+                raw.offer(adcs[adcOfSensor[i]].getScanStart(), i, values[i]);
+            }
+        }
+        ScanFilter f = filter;
+        if (f != null) {
+            f.filter(adcs[0].getScanStart(), values, values);
+        }
+        boolean active = false;
+        for (int i = 0;i < values.length;i++) {
+            long time = adcs[adcOfSensor[i]].getScanStart();
+            ring.offer(time, i, values[i]);
+            active |= isActivity(baselines[i], time, values[i])
+                || f != null && Math.abs(f.getSlope(i)) > ONSET_SLOPE;
+        }
+        return active;
+    }
+    
+    // whether a reading has strayed from its sensor's resting level. The
+    // resting level follows readings at rest, and only drifts slowly towards
+    // activity, so that a press doesn't become the new resting level but a
+    // lasting step in the level eventually does
+    private static boolean isActivity(BaselineTracker baseline, long time, int value) {
+        if (!baseline.isWarm()) {
+            baseline.update(time, value);
+            return true;
+        }
+        float distance = Math.abs(value - baseline.getMean());
+        if (distance > MIN_ACTIVITY
+                && distance > ACTIVITY_DEVIATIONS * baseline.getDeviation()) {
+            baseline.drift(time, value, DRIFT_NANOS);
+            return true;
+        }
+        baseline.update(time, value);
+        return false;
+    }
+    
+    // goes to the full rate as soon as there's activity, and back to the
+    // idle rate once there's been none for a while
+    private void updateMode(boolean active, long time) {
+        if (active) {
+            lastActive = time;
+            if (mode == Mode.IDLE) {
+                mode = Mode.ACTIVE;
+                modeChanges++;
+                Thread w = waiter;
+                if (w != null) {
+                    LockSupport.unpark(w);
+                }
+            }
+        } else if (mode == Mode.ACTIVE && time - lastActive > QUIET_NANOS) {
+            mode = Mode.IDLE;
+            modeChanges++;
+        }
+    }
+    
+    // waits until the given time, sleeping while it's far away and spinning
+    // once it's close. Every sleep is cut short by the time that sleeps have
+    // been waking up late, which is learned as it goes. When idle, there is
+    // no spinning at all, since a little jitter doesn't matter
+    private void waitUntil(long time, boolean idle) {
+        long remaining;
+        while ((remaining = time - System.nanoTime()) > 0) {
+            if (idle) {
+                LockSupport.parkNanos(remaining);
+            } else if (remaining > spinNanos) {
+                long wake = time - spinNanos;
+                LockSupport.parkNanos(wake - System.nanoTime());
+                calibrate(System.nanoTime() - wake);
+            }
+        }
+    }
+    
+    // moves the spin time towards twice how late the last sleep woke up
+    private void calibrate(long oversleep) {
+        spinNanos += (2 * Math.max(oversleep, 0) - spinNanos) / 8;
+        spinNanos = Math.min(Math.max(spinNanos, MIN_SPIN_NANOS), MAX_SPIN_NANOS);
+    }
+    
+    /**
+     * @return the time between scans, in nanoseconds
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+    
+    /**
+     * @return the time between scans while idle, in nanoseconds
+     */
+    public long getIdlePeriodNanos() {
+        return idlePeriodNanos;
+    }
+    
+    /**
+     * @return the time between scans right now, in nanoseconds
+     */
+    public long getCurrentPeriodNanos() {
+        return mode == Mode.IDLE ? idlePeriodNanos : periodNanos;
+    }
+    
+    /**
+     * @return whether the sampler is reading at its full rate or its idle
+     * rate
+     */
+    public Mode getMode() {
+        return mode;
+    }
+    
+    /**
+     * @return the number of times the sampler has switched between its full
+     * rate and its idle rate
+     */
+    public long getModeChanges() {
+        return modeChanges;
+    }
+    
+    /**
+     * @return the CPU time used by the sampler thread per second, over the
+     * last second, as a fraction of one core (0 if the JVM can't measure it)
+     */
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+    
+    /**
+     * @return the number of scans done
+     */
+    public long getScans() {
+        return scans;
+    }
+    
+    /**
+     * @return the number of scans skipped because the sampler fell more than
+     * a whole period behind
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+    
+    /**
+     * @return the average time that a scan started after it was due, in
+     * nanoseconds
+     */
+    public long getMeanJitterNanos() {
+        long count = scans;
+        return count == 0 ? 0 : totalJitter / count;
+    }
+    
+    /**
+     * @return the longest time that a scan started after it was due, in
+     * nanoseconds
+     */
+    public long getMaxJitterNanos() {
+        return maxJitter;
+    }
+    
+    /**
+     * @return the average time it took to read every sensor once, in
+     * nanoseconds. Once this approaches the period, the rate can't go higher
+     */
+    public long getMeanScanNanos() {
+        long count = scans;
+        return count == 0 ? 0 : totalScanTime / count;
+    }
+    
+    /**
+     * @return the number of readings dropped because the ring was full
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+    
+}
@@ -0,0 +1,163 @@
+/**
+ * Cleans up the readings of every channel of a scan before presses are
+ * detected in them. Each reading first goes through a median of its last
+ * three values, which throws away single-reading spikes, then through a
+ * one-pole low-pass filter, which smooths out ADC noise and mains hum picked
+ * up by long sensor leads. The slope of the smoothed signal (how fast it
+ * changed since the last scan) is kept too, to spot the start of a press.
+ * <p>
+ * The strength of the low-pass is a time constant, not a number of scans.
+ * Each scan moves the output a fraction of the way to the input that depends
+ * on the time since the last scan, so the filter behaves the same at the full
+ * rate and at the idle rate. The median always spans three scans.
+ * <p>
+ * The filter works on a whole scan at once. Its state is kept in one
+ * primitive array per quantity, indexed by channel, and every step is a
+ * plain loop over the channels with no branches, so the JIT can run it on
+ * several channels at a time. The low-pass is done in fixed point, with
+ * <code>FRACTION_BITS</code> bits below the ADC's resolution. Nothing is
+ * allocated after construction.
+ * <p>
+ * A filter isn't thread-safe. It's used by the one thread that scans.
+ * 
+ * @see Sampler
+ * @author Matthew Flynn
+ * @version April 5th, 2018
+ */
+public class ScanFilter {
+    
+    /**
+     * The default time constant of the low-pass filter, in nanoseconds. At
+     * 1000 scans per second, each scan moves the output 1/4 of the way to the
+     * input, which takes about a third off 50Hz hum while adding only a few
+     * milliseconds of delay to a press
+     */
+    public static final long DEFAULT_SMOOTHING_NANOS = 3000000;
+    /**
+     * The number of fixed-point bits kept below the ADC's resolution
+     */
+    public static final int FRACTION_BITS = 4;
+    
+    // the most that the output is slowed down by: each scan moves it at least
+    // 1/2^MAX_SHIFT of the way
+    private static final int MAX_SHIFT = 12;
+    
+    private final int channels;
+    private final long smoothingNanos;
+    // the two readings before the current one, for the median
+    private final int[] previous;
+    private final int[] beforePrevious;
+    // the smoothed value, in fixed point
+    private final int[] smoothed;
+    // how much the smoothed value changed over the last scan, in fixed point
+    private final int[] slope;
+    // whether the state has been started from a first scan
+    private boolean primed;
+    // when the last scan was taken, and how long before it the one before
+    private long lastTime;
+    private long lastGap = 1;
+    
+    /**
+     * Constructs a <code>ScanFilter</code> with the default smoothing
+     * 
+     * @param channels the number of channels in each scan
+     */
+    public ScanFilter(int channels) {
+        this(channels, DEFAULT_SMOOTHING_NANOS);
+    }
+    
+    /**
+     * Constructs a <code>ScanFilter</code>
+     * 
+     * @param channels the number of channels in each scan
+     * @param smoothingNanos the time constant of the low-pass filter, in
+     * nanoseconds (0 turns it off)
+     */
+    public ScanFilter(int channels, long smoothingNanos) {
+        if (channels < 1 || smoothingNanos < 0) {
+            throw new IllegalArgumentException("Invalid filter (" + channels
+                + " channels, smoothing " + smoothingNanos + "ns)");
+        }
+        this.channels = channels;
+        this.smoothingNanos = smoothingNanos;
+        previous = new int[channels];
+        beforePrevious = new int[channels];
+        smoothed = new int[channels];
+        slope = new int[channels];
+    }
+    
+    /**
+     * Filters one scan. Scans must be filtered in the order they were taken
+     * 
+     * @param time when the scan was taken (<code>System.nanoTime</code>)
+     * @param in the raw reading of each channel
+     * @param out where to put the filtered reading of each channel (may be
+     * the same array as <code>in</code>)
+     */
+    public void filter(long time, short[] in, short[] out) {
+        if (primed) {
+            lastGap = Math.max(1, time - lastTime);
+        }
+        lastTime = time;
+        int smoothing = shiftFor(lastGap);
+        if (!primed) {
+            // start as if every channel had been steady at its first reading
+            for (int i = 0;i < channels;i++) {
+                previous[i] = in[i];
+                beforePrevious[i] = in[i];
+                smoothed[i] = in[i] << FRACTION_BITS;
+            }
+            primed = true;
+        }
+        for (int i = 0;i < channels;i++) {
+            int a = in[i];
+            int b = previous[i];
+            int c = beforePrevious[i];
+            // the median of three, without branches
+            int median = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            beforePrevious[i] = b;
+            previous[i] = a;
+            int last = smoothed[i];
+            int next = last + (((median << FRACTION_BITS) - last) >> smoothing);
+            smoothed[i] = next;
+            slope[i] = next - last;
+            out[i] = (short)((next + (1 << (FRACTION_BITS - 1))) >> FRACTION_BITS);
+        }
+    }
+    
+    // the shift that moves the output about gap / (time constant + gap) of
+    // the way to the input: close to 1 - e^(-gap / time constant), rounded
+    // to a power of two
+    private int shiftFor(long gap) {
+        if (smoothingNanos == 0) {
+            return 0;
+        }
+        // 1.5 times the reciprocal of the step, so that its log is rounded
+        long ratio = 3 * (smoothingNanos + gap) / (2 * gap);
+        return Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(ratio));
+    }
+    
+    /**
+     * Starts the filter afresh from the next scan, as if it were new
+     */
+    public void reset() {
+        primed = false;
+    }
+    
+    /**
+     * @param channel a channel
+     * @return how fast the channel's filtered reading changed over the last
+     * scan, in ADC steps per millisecond
+     */
+    public float getSlope(int channel) {
+        return slope[channel] * (1000000f / (1 << FRACTION_BITS)) / lastGap;
+    }
+    
+    /**
+     * @return the number of channels in each scan
+     */
+    public int getChannels() {
+        return channels;
+    }
+    
+}
@@ -0,0 +1,61 @@
+/**
+ * An <code>SpiTransport</code> that stands in for a real MCP3208, so that the
+ * protocol can be tested and benchmarked on a computer without one. Every
+ * transfer is checked to be a well-formed conversion request, and is answered
+ * with the next value of a script, which repeats once it runs out.
+ * 
+ * @see MCP3208
+ * @author Matthew Flynn
+ * @version February 15th, 2018
+ */
+public class ScriptedTransport implements SpiTransport {
+    
+    // the values to answer with, in order
+    private final short[] script;
+    private int next;
+    // the channel of the last request, and the number of requests
+    private int lastChannel = -1;
+    private long transfers;
+    
+    /**
+     * Constructs a <code>ScriptedTransport</code>
+     * 
+     * @param script the 12-bit values to answer conversion requests with
+     */
+    public ScriptedTransport(short... script) {
+        if (script.length == 0) {
+            throw new IllegalArgumentException("The script must have at least one value.");
+        }
+        this.script = script.clone();
+    }
+    
+    @Override
+    public void transfer(byte[] buffer, int length) {
+        if (length != MCP3208.FRAME_SIZE) {
+            throw new IllegalStateException("Expected a " + MCP3208.FRAME_SIZE + " byte frame, but got " + length + " bytes.");
+        }
+        lastChannel = MCP3208.decodeRequest(buffer);
+        if (lastChannel < 0) {
+            throw new IllegalStateException("The frame is not a single-ended conversion request.");
+        }
+        MCP3208.encodeResponse(script[next], buffer);
+        next = (next + 1) % script.length;
+        transfers++;
+    }
+    
+    /**
+     * @return the channel that the last conversion request was for, or -1 if
+     * there hasn't been one
+     */
+    public int getLastChannel() {
+        return lastChannel;
+    }
+    
+    /**
+     * @return the number of conversion requests answered
+     */
+    public long getTransfers() {
+        return transfers;
+    }
+    
+}
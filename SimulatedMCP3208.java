@@ -0,0 +1,183 @@
+/**
+ * An <code>SpiTransport</code> that stands in for a whole MCP3208, with a
+ * made-up pulse sensor on every channel, so the program can run without a
+ * Raspberry Pi, and with far more sensors than we own. Unlike a
+ * <code>ScriptedTransport</code>, it doesn't look at whole frames: it plays
+ * the part of the chip one clock at a time, following the sequence in the
+ * MCP3208's data sheet, so any way of framing a conversion that works on the
+ * real chip works here too.
+ * <p>
+ * For each conversion, the chip waits for a start bit, then reads the mode
+ * (single-ended or differential) and the three bits of the channel. It
+ * samples the input on the next clock, sends a null bit, then the 12-bit
+ * result, most significant bit first. If it's clocked further, it sends the
+ * result again, least significant bit first, and after that only zeros.
+ * Deselecting the chip (the end of a transfer) starts it over. While the
+ * chip has nothing to say, its output reads as 0.
+ * <p>
+ * Each clock can be made to take a set time, to mimic the speed of a real
+ * bus.
+ * 
+ * @see PulseSignal
+ * @see MCP3208
+ * @author Matthew Flynn
+ * @version April 12th, 2018
+ */
+public class SimulatedMCP3208 implements SpiTransport {
+    
+    // the steps of a conversion
+    private static final int WAIT_FOR_START = 0;
+    private static final int CONFIG = 1;
+    private static final int SAMPLE = 2;
+    private static final int NULL_BIT = 3;
+    private static final int MSB_FIRST = 4;
+    private static final int LSB_FIRST = 5;
+    private static final int DONE = 6;
+    
+    private final PulseSignal[] signals;
+    private long clockNanos;
+    
+    // where the chip is in the current conversion
+    private int state = WAIT_FOR_START;
+    // the configuration bits read so far (single/diff, D2, D1, D0), and how
+    // many of them there are
+    private int config;
+    private int configBits;
+    // the result being sent, and the bit of it that's next
+    private int result;
+    private int bit;
+    private long conversions;
+    
+    /**
+     * Constructs a <code>SimulatedMCP3208</code> with a signal on every
+     * channel, each made from a different seed
+     * 
+     * @param seed the seed of the first channel's signal (the others follow
+     * on from it)
+     */
+    public SimulatedMCP3208(long seed) {
+        signals = new PulseSignal[MCP3208.CHANNELS];
+        for (int i = 0;i < signals.length;i++) {
+            signals[i] = new PulseSignal(seed + i);
+        }
+    }
+    
+    /**
+     * Constructs a <code>SimulatedMCP3208</code> with the given signals
+     * 
+     * @param signals the signal on each channel, 0 to 7
+     */
+    public SimulatedMCP3208(PulseSignal... signals) {
+        if (signals.length != MCP3208.CHANNELS) {
+            throw new IllegalArgumentException("An MCP3208 has " + MCP3208.CHANNELS
+                + " channels, not " + signals.length);
+        }
+        this.signals = signals.clone();
+    }
+    
+    @Override
+    public void transfer(byte[] buffer, int length) {
+        // selecting the chip starts a new conversion
+        state = WAIT_FOR_START;
+        for (int i = 0;i < length;i++) {
+            int out = buffer[i];
+            int in = 0;
+            for (int b = 0;b < 8;b++) {
+                in = (in << 1) | clock((out & 0x80) != 0);
+                out <<= 1;
+            }
+            buffer[i] = (byte)in;
+        }
+    }
+    
+    // one clock: the chip reads the bit on its input, and returns the bit on
+    // its output
+    private int clock(boolean in) {
+        if (clockNanos > 0) {
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < clockNanos) {
+                // spin
+            }
+        }
+        switch (state) {
+        case WAIT_FOR_START:
+            if (in) {
+                state = CONFIG;
+                config = 0;
+                configBits = 0;
+            }
+            return 0;
+        case CONFIG:
+            config = (config << 1) | (in ? 1 : 0);
+            if (++configBits == 4) {
+                state = SAMPLE;
+            }
+            return 0;
+        case SAMPLE:
+            result = convert(config, System.nanoTime());
+            conversions++;
+            state = NULL_BIT;
+            return 0;
+        case NULL_BIT:
+            state = MSB_FIRST;
+            bit = 11;
+            return 0;
+        case MSB_FIRST:
+            int ret = (result >> bit) & 1;
+            if (--bit < 0) {
+                // B0 isn't sent twice
+                state = LSB_FIRST;
+                bit = 1;
+            }
+            return ret;
+        case LSB_FIRST:
+            ret = (result >> bit) & 1;
+            if (++bit > 11) {
+                state = DONE;
+            }
+            return ret;
+        default:
+            return 0;
+        }
+    }
+    
+    // the result of a conversion, given its configuration bits. A
+    // differential conversion measures one channel of a pair against the
+    // other, and reads 0 if it's the lower of the two
+    private int convert(int config, long time) {
+        int channel = config & 0b111;
+        if ((config & 0b1000) != 0) {
+            return signals[channel].valueAt(time);
+        }
+        int plus = signals[channel].valueAt(time);
+        int minus = signals[channel ^ 1].valueAt(time);
+        return Math.max(0, plus - minus);
+    }
+    
+    /**
+     * Sets how long each clock takes, to mimic the speed of a real bus. The
+     * time is spent spinning
+     * 
+     * @param nanos the time of each clock, in nanoseconds (0 for as fast as
+     * possible)
+     */
+    public void setClockNanos(long nanos) {
+        clockNanos = nanos;
+    }
+    
+    /**
+     * @param channel a channel, 0 to 7
+     * @return the signal on the channel
+     */
+    public PulseSignal getSignal(int channel) {
+        return signals[channel];
+    }
+    
+    /**
+     * @return the number of conversions done
+     */
+    public long getConversions() {
+        return conversions;
+    }
+    
+}
@@ -1,4 +1,9 @@
-import javax.sound.sampled.Clip;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.sampled.LineUnavailableException;
 
 import com.pi4j.io.gpio.GpioPinDigitalOutput;
 
@@ -6,14 +11,63 @@ import com.pi4j.io.gpio.GpioPinDigitalOutput;
  * The class that handles the playing of sound files. It polls some given 
  * <code>PulseSensor</code> objects, and if any of them detect that the user's
  * skin has been pressed, it plays the pitch associated with the sensor.
+ * All notes are played through a single <code>NoteOutput</code>: normally
+ * an <code>AudioEngine</code> mixing our own samples, or MIDI.
+ * <p>
+ * The sensors are read by a <code>Sampler</code> on its own thread, at a
+ * fixed rate while anyone is touching them, and at a much lower idle rate
+ * while nobody is. Presses are detected on the thread that calls
+ * <code>start</code>, and reported as <code>PulseEvent</code>s to a separate
+ * thread, which plays them in batches at a volume set by how hard the sensor
+ * was pressed. The audio is rendered on the engine's thread, so none of this
+ * can slow down the sampling.
  * 
+ * @see AudioEngine
+ * @see NoteOutput
+ * @see Sampler
+ * @see PulseEvent
  * @author Matthew Flynn
- * @version January 25th, 2018
+ * @version February 22nd, 2018
  */
 public class SoundPlayer {
     
+    /**
+     * The default number of times per second that every sensor is read
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 1000;
+    /**
+     * The default number of times per second that every sensor is read while
+     * they're all at rest
+     */
+    public static final int DEFAULT_IDLE_RATE = 200;
+    // the number of readings that can wait between sampling and detection
+    private static final int RING_SIZE = 4096;
+    // the number of events that can wait between detection and playing
+    private static final int QUEUE_SIZE = 256;
+    // how long detection sleeps when there are no readings waiting
+    private static final long IDLE_NANOS = 100000;
+    // how often problems with the sampling are reported
+    private static final long REPORT_NANOS = 10000000000L;
+    // how often a summary of the metrics is printed, in seconds
+    private static final long METRICS_SECONDS = 60;
+    
     // the pulse sensors that can alert this SoundPlayer to play sound
     private final PulseSensor[] sensors;
+    // the number of times per second that the sensors are read
+    private final int sampleRate;
+    // the number of times per second that the sensors are read while they're
+    // all at rest
+    private volatile int idleRate = DEFAULT_IDLE_RATE;
+    // whether the readings are filtered before presses are detected in them
+    private volatile boolean filtered = true;
+    // if not null, every reading is recorded to this
+    private volatile AdcRecorder recorder;
+    // if not null, every reading is also shown by this
+    private volatile SampleRing.Handler monitor;
+    // the engine that samples are played through
+    private static volatile AudioEngine engine;
+    // where all notes are played
+    private static volatile NoteOutput output;
     
     /** 
      * Creates a new <code>SoundPlayer</code> Object that will poll and play the
@@ -23,7 +77,46 @@ public class SoundPlayer {
      * poll
      */
     public SoundPlayer(PulseSensor... sensors) {
+        this(DEFAULT_SAMPLE_RATE, sensors);
+    }
+    
+    /** 
+     * Creates a new <code>SoundPlayer</code> Object that will poll and play the
+     * sounds of the given <code>PulseSensor</code> Objects.
+     * 
+     * @param sampleRate the number of times per second to read every sensor
+     * @param sensors the sensors for this <code>SoundPlayer</code> Object to
+     * poll
+     */
+    public SoundPlayer(int sampleRate, PulseSensor... sensors) {
         this.sensors = sensors;
+        this.sampleRate = sampleRate;
+    }
+    
+    /**
+     * Sets how many times per second the sensors are read while nobody is
+     * touching them. Only takes effect when <code>start</code> is called
+     * 
+     * @param idleRate the idle rate, or the full sample rate to never slow
+     * down
+     * 
+     * @see Sampler
+     */
+    public void setIdleRate(int idleRate) {
+        this.idleRate = Math.min(idleRate, sampleRate);
+    }
+    
+    /**
+     * Sets whether the readings are filtered (to take out spikes, noise and
+     * hum) before presses are detected in them. They are by default. Only
+     * takes effect when <code>start</code> is called
+     * 
+     * @param filtered whether to filter the readings
+     * 
+     * @see ScanFilter
+     */
+    public void setFiltered(boolean filtered) {
+        this.filtered = filtered;
     }
     
     /**
@@ -31,14 +124,191 @@ public class SoundPlayer {
      * This method loops forever if it's not stopped externally (which is fine)
      */
     public void start() {
-        int count = 0;
+        SampleRing ring = new SampleRing(RING_SIZE);
+        Sampler sampler = new Sampler(sensors, sampleRate, idleRate, ring);
+        // the raw readings are recorded, not the filtered ones, so that a
+        // replay can filter them again
+        SampleRing raw = null;
+        if (filtered && sensors.length > 0) {
+            sampler.setFilter(new ScanFilter(sensors.length));
+            if (recorder != null) {
+                raw = new SampleRing(RING_SIZE);
+                sampler.setRawRing(raw);
+            }
+        }
+        // detection polls slowly while the sampler is idle, and is woken as
+        // soon as the sampler sees activity
+        sampler.wakeOnActivity(Thread.currentThread());
+        Metrics.setSampler(sampler);
+        sampler.start();
+        run(ring, raw, sampler, null);
+    }
+    
+    /**
+     * Plays back a recording of readings in place of the pulse sensors, and
+     * detects and plays presses from it just as <code>start</code> would,
+     * filtering the readings first unless <code>setFiltered(false)</code> was
+     * called. The channels of the recording are the indexes of the sensors.
+     * 
+     * @param recording a recording made by an <code>AdcRecorder</code>
+     * @param realTime whether to keep the readings' original spacing, rather
+     * than playing them back as fast as possible
+     * @return the number of readings played back
+     * 
+     * @see AdcReplay
+     */
+    public long replay(File recording, boolean realTime) {
+        SampleRing ring = new SampleRing(RING_SIZE);
+        AdcReplay replay = new AdcReplay(recording, ring, realTime);
+        // the recording holds the raw readings, so they're filtered just as
+        // the sampler would have
+        if (filtered && sensors.length > 0) {
+            replay.setFilter(new ScanFilter(sensors.length));
+        }
+        long start = System.nanoTime();
+        run(ring, null, null, replay.start());
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Replayed " + replay.getReplayed() + " readings in "
+            + elapsed / 1000000 + "ms (" + (long)(replay.getReplayed() * 1e9 / elapsed)
+            + " readings/s)");
+        return replay.getReplayed();
+    }
+    
+    /**
+     * Sets a recorder that every reading is given to, as it was read (before
+     * it's filtered). Set it before calling <code>start</code> if the
+     * readings are filtered, or it's given the filtered readings
+     * 
+     * @param recorder the recorder, or null to stop recording
+     * 
+     * @see AdcRecorder
+     */
+    public void setRecorder(AdcRecorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    /**
+     * Sets a monitor that every reading is shown to, as it's detected. The
+     * monitor is called on the detection thread, so it must be quick
+     * 
+     * @param monitor the monitor, or null for none
+     * 
+     * @see ReadingGraph
+     */
+    public void setMonitor(SampleRing.Handler monitor) {
+        this.monitor = monitor;
+    }
+    
+    // detects presses in the readings coming through the ring, and plays
+    // them on another thread, recording the raw readings from the raw ring
+    // if there is one (or else the readings detected). Runs until the source
+    // thread ends and every reading has been handled, or forever if there is
+    // no source thread
+    private void run(SampleRing ring, SampleRing raw, Sampler sampler, Thread source) {
+        EventQueue events = new EventQueue(QUEUE_SIZE);
+        for (PulseSensor sensor : sensors) {
+            sensor.setEventQueue(events);
+            sensor.trackHeartRate();
+        }
+        Metrics.setChannelCount(sensors.length);
+        Metrics.setSensors(sensors);
+        Metrics.register();
+        Metrics.startLogging(METRICS_SECONDS);
+        AtomicBoolean detecting = new AtomicBoolean(true);
+        Thread player = new Thread(() -> playEvents(events, detecting), "player");
+        player.setDaemon(true);
+        player.start();
+        SampleRing.Handler recording = this::record;
+        SampleRing.Handler detector = raw != null ? this::detect : (time, channel, value) -> {
+            record(time, channel, value);
+            detect(time, channel, value);
+        };
+        long lastReport = System.nanoTime();
+        long lastProblems = 0;
         while (true) {
-            for (PulseSensor sensor : sensors) {
-                if (sensor.readAdc()) {
-                    playNote(sensor.pitch, Instrument.PIANO);
+            int drained = ring.drain(detector, RING_SIZE);
+            if (raw != null) {
+                drained += raw.drain(recording, RING_SIZE);
+            }
+            if (drained == 0) {
+                if (source != null && !source.isAlive() && ring.size() == 0) {
+                    break;
                 }
-            }// for loop
+                LockSupport.parkNanos(sampler == null ? IDLE_NANOS
+                    : Math.max(IDLE_NANOS, sampler.getCurrentPeriodNanos() / 2));
+            }
+            // report any scans or readings that have been lost
+            long now = System.nanoTime();
+            if (sampler != null && now - lastReport > REPORT_NANOS) {
+                lastReport = now;
+                long unrecorded = raw == null ? 0 : raw.getDropped();
+                long problems = sampler.getOverruns() + sampler.getDropped()
+                    + unrecorded + events.getDropped();
+                if (problems != lastProblems) {
+                    lastProblems = problems;
+                    System.out.println("Sampling fell behind: "
+                        + sampler.getOverruns() + " scans skipped, "
+                        + sampler.getDropped() + " readings dropped, "
+                        + unrecorded + " readings not recorded, "
+                        + events.getDropped() + " events dropped, "
+                        + sampler.getMaxJitterNanos() / 1000 + "us max jitter, "
+                        + sampler.getMeanScanNanos() / 1000 + "us of every "
+                        + sampler.getPeriodNanos() / 1000 + "us spent scanning");
+                }
+            }
         }// while (true) loop
+        detecting.set(false);
+        try {
+            player.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // gives a reading to the recorder, if there is one
+    private void record(long time, int channel, short value) {
+        AdcRecorder r = recorder;
+        if (r != null) {
+            r.onSample(time, channel, value);
+        }
+    }
+    
+    // checks a reading for a press. The sensor reports it to the event queue
+    private void detect(long time, int channel, short value) {
+        SampleRing.Handler m = monitor;
+        if (m != null) {
+            m.onSample(time, channel, value);
+        }
+        if (channel >= sensors.length) {
+            return;
+        }
+        Metrics.countSample(channel);
+        if (sensors[channel].update(time, value)) {
+            Metrics.countTrigger(channel);
+        }
+    }
+    
+    // the body of the player thread: plays every press reported to the queue,
+    // until detection has stopped and the queue is empty
+    private static void playEvents(EventQueue events, AtomicBoolean detecting) {
+        EventQueue.Handler handler = event -> {
+            if (event.getType() == PulseEvent.PRESS) {
+                Metrics.DETECTION.record(System.nanoTime() - event.getTime());
+                playNote(event.getSensor().pitch, Instrument.PIANO,
+                    event.getVelocity(), event.getTime());
+            } else {
+                getNoteOutput().noteOff(Instrument.PIANO,
+                    event.getSensor().pitch, event.getTime());
+            }
+        };
+        while (true) {
+            if (events.drain(handler, QUEUE_SIZE) == 0) {
+                if (!detecting.get() && events.drain(handler, QUEUE_SIZE) == 0) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
     }
 
     //===========================STATIC METHODS=================================
@@ -53,13 +323,105 @@ public class SoundPlayer {
      * @see Instrument
      */
     public static void playNote(Pitch p, Instrument instrument) {
-        Clip note = instrument.getSound(p);
-        // if the note hasn't been played yet, this doesn't do anything
-        // if it has, then it's necessary
-        note.stop();
-        note.setFramePosition(0);
-        // play the note
-        note.start();
+        playNote(p, instrument, 1f, System.nanoTime());
+    }
+    
+    /**
+     * plays a pitch on the specified instrument, at a volume set by how hard
+     * the sensor was pressed
+     * 
+     * @param p the pitch to be played
+     * @param instrument the instrument for the pitch to be played on
+     * @param velocity how hard the sensor was pressed, from 0 to 1
+     * 
+     * @see PulseEvent#getVelocity()
+     */
+    public static void playNote(Pitch p, Instrument instrument, float velocity) {
+        playNote(p, instrument, velocity, System.nanoTime());
+    }
+    
+    /**
+     * plays a pitch on the specified instrument, at a volume set by how hard
+     * the sensor was pressed
+     * 
+     * @param p the pitch to be played
+     * @param instrument the instrument for the pitch to be played on
+     * @param velocity how hard the sensor was pressed, from 0 to 1
+     * @param pressTime when the sensor was pressed (as given by <code>
+     * System.nanoTime</code>), for measuring the latency
+     * 
+     * @see PulseEvent
+     */
+    public static void playNote(Pitch p, Instrument instrument, float velocity,
+            long pressTime) {
+        getNoteOutput().noteOn(instrument, p, velocity, pressTime);
+    }
+    
+    /**
+     * Sets where all notes are played. This should be done before any notes
+     * are played, if it is to be done at all
+     * 
+     * @param o the output
+     * 
+     * @see MidiOutput
+     */
+    public static void setNoteOutput(NoteOutput o) {
+        output = o;
+    }
+    
+    /**
+     * Gets where all notes are played. If nothing has been set, notes are
+     * played from our own samples, through <code>getAudioEngine</code>
+     * 
+     * @return the <code>NoteOutput</code> used by <code>playNote</code>
+     */
+    public static NoteOutput getNoteOutput() {
+        NoteOutput ret = output;
+        if (ret == null) {
+            synchronized (SoundPlayer.class) {
+                ret = output;
+                if (ret == null) {
+                    ret = new SampleOutput(getAudioEngine());
+                    output = ret;
+                }
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Sets the engine that samples are played through. This should be done
+     * before any notes are played, if it is to be done at all
+     * 
+     * @param e a started <code>AudioEngine</code>
+     */
+    public static void setAudioEngine(AudioEngine e) {
+        engine = e;
+    }
+    
+    /**
+     * Gets the engine that samples are played through. If none has been set,
+     * one is created with the default settings and started
+     * 
+     * @return the <code>AudioEngine</code> used by <code>SampleOutput</code>
+     */
+    public static AudioEngine getAudioEngine() {
+        AudioEngine ret = engine;
+        if (ret == null) {
+            synchronized (SoundPlayer.class) {
+                ret = engine;
+                if (ret == null) {
+                    ret = new AudioEngine();
+                    try {
+                        ret.start();
+                    } catch (LineUnavailableException e) {
+                        throw new IllegalStateException("No audio line is available", e);
+                    }
+                    engine = ret;
+                }
+            }
+        }
+        return ret;
     }
     
     /**
@@ -88,16 +450,239 @@ public class SoundPlayer {
         return ret;
     }
     
+    /**
+     * Creates a sequence of <code>PulseSensor</code> objects attached to the
+     * MCP3208s of a bus, in channels 0 ~ <code>num</code> of the bus (filling
+     * each MCP3208 before moving to the next), with pitches rising up the C
+     * major scale from C4, through as many octaves as it takes
+     * 
+     * @param num the number of sensors (values above the number of channels
+     * on the bus will still only return one sensor per channel)
+     * @param bus the physical MCP3208s that the physical sensors are attached
+     * to
+     * @return an array of <code>PulseSensor</code> objects, with the channel
+     * of the bus of each equal to its index in the array
+     * 
+     * @see MCP3208Bus
+     */
+    public static PulseSensor[] sequentialSensors(int num, MCP3208Bus bus) {
+        if (num > bus.getChannelCount()) {
+            num = bus.getChannelCount();
+        }
+        Pitch[] pitches = Pitch.major(Pitch.C4, num);
+        PulseSensor[] ret = new PulseSensor[num];
+        for (int i = 0;i < num;i++) {
+            ret[i] = new PulseSensor(bus.chipOf(i), MCP3208Bus.channelOnChip(i),
+                pitches[i]);
+        }
+        return ret;
+    }
+    
     /**
      * Main method. Excecution of the program begins here
      * 
-     * @param args any command line arguments passed to the program (this
-     * program requires no arguments)
+     * @param args any command line arguments passed to the program. None are
+     * required, but these are understood:
+     * <ul>
+     * <li><code>--period N</code>: the number of frames the audio engine
+     * mixes at a time (a bare number as the first argument also works)</li>
+     * <li><code>--record FILE</code>: record every reading to a file</li>
+     * <li><code>--replay FILE</code>: play back a recording instead of
+     * reading the sensors (no sensors need to be attached)</li>
+     * <li><code>--fast</code>: play back the recording as fast as possible,
+     * rather than in real time</li>
+     * <li><code>--graph</code>: graph the readings as they come in</li>
+     * <li><code>--sensors N</code>: the number of sensors (4 by default)</li>
+     * <li><code>--cs A,B,...</code>: the Chip Select pin of each MCP3208,
+     * which all share one bus (just pin 21 by default)</li>
+     * <li><code>--voices N</code>: the number of notes that can sound at
+     * once</li>
+     * <li><code>--steal oldest|quietest</code>: which note is cut short when
+     * too many are sounding</li>
+     * <li><code>--midi</code>: play MIDI through the built-in synthesizer
+     * instead of our own samples (nothing has to be loaded)</li>
+     * <li><code>--midi-file FILE</code>: record MIDI to a file instead of
+     * playing anything. The file is written when the program exits</li>
+     * <li><code>--idle-rate N</code>: the number of times per second that
+     * the sensors are read while nobody is touching them (200 by default)
+     * </li>
+     * <li><code>--raw</code>: detect presses in the raw readings, without
+     * filtering them first</li>
+     * <li><code>--wav FILE</code>: render the notes into a WAV file instead
+     * of playing them (with <code>--replay</code> and <code>--fast</code>,
+     * this renders a recorded performance faster than real time)</li>
+     * <li><code>--gpiomem</code>: drive the MCP3208s by writing the GPIO
+     * registers directly, through <code>/dev/gpiomem</code>, rather than
+     * through Pi4J (which is still used if the registers can't be mapped)
+     * </li>
+     * <li><code>--cache-mb N</code>: the most memory that decoded samples
+     * may take up, in megabytes (samples from the sample bank don't count)
+     * </li>
+     * </ul>
+     * @throws LineUnavailableException if no audio line can be opened
+     * @throws MidiUnavailableException if the synthesizer can't be opened
+     * @throws IOException if a recording can't be opened
      */
-    public static void main(String[] args) {
-        MCP3208 adc = new MCP3208(21, 22, 23, 24);
-        SoundPlayer player = new SoundPlayer(sequentialSensors(4, adc));
-        player.start();
+    public static void main(String[] args) throws LineUnavailableException,
+            MidiUnavailableException, IOException {
+        int period = AudioEngine.DEFAULT_PERIOD;
+        File record = null;
+        File replay = null;
+        boolean fast = false;
+        boolean graph = false;
+        int sensorCount = 4;
+        String[] chipSelects = {"21"};
+        int voices = AudioEngine.DEFAULT_MAX_VOICES;
+        AudioEngine.StealPolicy steal = AudioEngine.StealPolicy.OLDEST;
+        boolean midi = false;
+        File midiFile = null;
+        long cacheBudget = SampleCache.DEFAULT_BUDGET;
+        int idleRate = DEFAULT_IDLE_RATE;
+        boolean raw = false;
+        File wavFile = null;
+        boolean gpiomem = false;
+        for (int i = 0;i < args.length;i++) {
+            switch (args[i]) {
+            case "--period":
+                period = Integer.parseInt(args[++i]);
+                break;
+            case "--record":
+                record = new File(args[++i]);
+                break;
+            case "--replay":
+                replay = new File(args[++i]);
+                break;
+            case "--fast":
+                fast = true;
+                break;
+            case "--graph":
+                graph = true;
+                break;
+            case "--sensors":
+                sensorCount = Integer.parseInt(args[++i]);
+                break;
+            case "--cs":
+                chipSelects = args[++i].split(",");
+                break;
+            case "--voices":
+                voices = Integer.parseInt(args[++i]);
+                break;
+            case "--steal":
+                steal = AudioEngine.StealPolicy.valueOf(args[++i].toUpperCase());
+                break;
+            case "--midi":
+                midi = true;
+                break;
+            case "--midi-file":
+                midiFile = new File(args[++i]);
+                break;
+            case "--idle-rate":
+                idleRate = Integer.parseInt(args[++i]);
+                break;
+            case "--raw":
+                raw = true;
+                break;
+            case "--wav":
+                wavFile = new File(args[++i]);
+                break;
+            case "--gpiomem":
+                gpiomem = true;
+                break;
+            case "--cache-mb":
+                cacheBudget = Long.parseLong(args[++i]) * 1024 * 1024;
+                break;
+            default:
+                if (i == 0) {
+                    period = Integer.parseInt(args[i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+                }
+            }
+        }
+        NoteOutput out;
+        if (midiFile != null) {
+            out = MidiOutput.toFile(midiFile);
+        } else if (midi) {
+            out = MidiOutput.openSynthesizer();
+        } else {
+            AudioEngine audio = new AudioEngine(period,
+                AudioEngine.DEFAULT_LINE_PERIODS,
+                Math.min(voices, AudioEngine.DEFAULT_VOICES_PER_INSTRUMENT), voices);
+            audio.setStealPolicy(steal);
+            // when rendering to a file, the engine is rendered by hand
+            if (wavFile == null) {
+                audio.start();
+                setAudioEngine(audio);
+            }
+            // load every sound up front, so that no press has to wait for a
+            // file. The sample bank is fastest, but loading the files one by
+            // one will do if it can't be used
+            long start = System.nanoTime();
+            Instrument.setCache(new SampleCache(cacheBudget,
+                Runtime.getRuntime().availableProcessors()));
+            try {
+                File samples = new File(Instrument.ALL_SAMPLES);
+                Instrument.useBank(SampleBank.loadOrBuild(samples,
+                    new File(samples, SampleBank.DEFAULT_NAME)));
+            } catch (IOException e) {
+                System.out.println("Could not use the sample bank: " + e);
+            }
+            Instrument.preloadAll();
+            System.out.println("Loaded samples (" + Instrument.getTotalResidentBytes()
+                + " bytes decoded) in " + (System.nanoTime() - start) / 1000000 + "ms");
+            out = wavFile != null ? new WavRenderer(wavFile, audio, System.nanoTime())
+                : new SampleOutput(audio);
+        }
+        setNoteOutput(out);
+        // a MIDI or WAV file is only complete once it's been written
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.out.println("Could not finish the output: " + e);
+            }
+        }));
+        // a replay never reads the MCP3208, so it doesn't need a real one
+        MCP3208[] chips = new MCP3208[chipSelects.length];
+        for (int i = 0;i < chips.length;i++) {
+            int cs = Integer.parseInt(chipSelects[i]);
+            if (replay != null) {
+                chips[i] = new MCP3208(new ScriptedTransport((short)0));
+            } else if (gpiomem) {
+                chips[i] = new MCP3208(GpioMemTransport.openOrBitBang(cs, 22, 24, 23));
+            } else {
+                chips[i] = new MCP3208(cs, 22, 23, 24);
+            }
+        }
+        PulseSensor[] sensors = sequentialSensors(sensorCount, new MCP3208Bus(chips));
+        SoundPlayer player = new SoundPlayer(sensors);
+        player.setIdleRate(idleRate);
+        player.setFiltered(!raw);
+        if (record != null) {
+            AdcRecorder recorder = new AdcRecorder(record, sensors.length);
+            player.setRecorder(recorder);
+            // the recording is only complete once it's been flushed
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                player.setRecorder(null);
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    System.out.println("Could not finish the recording: " + e);
+                }
+            }));
+        }
+        if (graph) {
+            ReadingGraph window = new ReadingGraph(sensors.length,
+                ReadingGraph.DEFAULT_CAPACITY);
+            window.pack();
+            window.setVisible(true);
+            player.setMonitor(window);
+        }
+        if (replay != null) {
+            player.replay(replay, !fast);
+        } else {
+            player.start();
+        }
     }
     
 }
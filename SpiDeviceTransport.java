@@ -0,0 +1,63 @@
+import com.pi4j.io.spi.SpiChannel;
+import com.pi4j.io.spi.SpiDevice;
+import com.pi4j.io.spi.SpiFactory;
+import com.pi4j.io.spi.SpiMode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * An <code>SpiTransport</code> that uses the Raspberry Pi's hardware SPI,
+ * through the kernel's SPI device (<code>/dev/spidev0.*</code>). The whole
+ * transfer is done by the hardware, so it's far faster than bit-banging, but
+ * the device must be wired to the SPI0 pins, with its chip select on CE0 or
+ * CE1.
+ * 
+ * @author Matthew Flynn
+ * @version February 15th, 2018
+ */
+public class SpiDeviceTransport implements SpiTransport {
+    
+    /**
+     * The default clock speed, in Hz. The MCP3208 is rated for 1MHz at 2.7V
+     * and 2MHz at 5V
+     */
+    public static final int DEFAULT_SPEED = 1000000;
+    
+    private final SpiDevice device;
+    
+    /**
+     * Constructs a <code>SpiDeviceTransport</code> at the default speed
+     * 
+     * @param chipEnable the chip enable pin that the device's chip select is
+     * connected to (0 or 1)
+     * @throws IOException if the SPI device can't be opened
+     */
+    public SpiDeviceTransport(int chipEnable) throws IOException {
+        this(chipEnable, DEFAULT_SPEED);
+    }
+    
+    /**
+     * Constructs a <code>SpiDeviceTransport</code>
+     * 
+     * @param chipEnable the chip enable pin that the device's chip select is
+     * connected to (0 or 1)
+     * @param speed the clock speed, in Hz
+     * @throws IOException if the SPI device can't be opened
+     */
+    public SpiDeviceTransport(int chipEnable, int speed) throws IOException {
+        device = SpiFactory.getInstance(SpiChannel.getByNumber(chipEnable),
+            speed, SpiMode.MODE_0);
+    }
+    
+    @Override
+    public void transfer(byte[] buffer, int length) {
+        byte[] received;
+        try {
+            received = device.write(buffer, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("SPI transfer failed", e);
+        }
+        System.arraycopy(received, 0, buffer, 0, length);
+    }
+    
+}
@@ -0,0 +1,25 @@
+/**
+ * A way of exchanging bytes with a device over SPI. This separates how the
+ * bits get to a device (bit-banged GPIO pins, the kernel's SPI driver, or
+ * nothing at all when testing) from what the bits mean, which is left to the
+ * class for the device, such as <code>MCP3208</code>.
+ * 
+ * @see MCP3208
+ * @author Matthew Flynn
+ * @version February 15th, 2018
+ */
+public interface SpiTransport {
+    
+    /**
+     * Exchanges bytes with the device, full duplex. The device is selected
+     * for the whole transfer, and each byte of the buffer is sent (most
+     * significant bit first) and then replaced by the byte that was received
+     * while it was being sent.
+     * 
+     * @param buffer the bytes to send, which are replaced by the bytes
+     * received
+     * @param length the number of bytes to exchange
+     */
+    void transfer(byte[] buffer, int length);
+    
+}
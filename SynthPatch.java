@@ -0,0 +1,258 @@
+/**
+ * The sound of a synthesized instrument: one cycle of a waveform, built by
+ * adding together sine waves at the harmonics of the note, shaped by an ADSR
+ * envelope (attack, decay, sustain, release). A synthesized instrument needs
+ * no sound files, so it costs nothing to load and takes almost no memory.
+ * <p>
+ * Notes are rendered by a <code>Tone</code>, a block at a time, straight into
+ * the engine's mix. Everything a tone needs is worked out up front: the
+ * waveform is a lookup table, the step through it for every MIDI note is
+ * another, and the envelope is a straight line within each stage. So the
+ * rendering loop is only table lookups, adds and shifts, and never
+ * allocates.
+ * <p>
+ * The engine has no note-off for our own sounds, so a note is held at the
+ * sustain level for a fixed time, then released.
+ * 
+ * @see Instrument
+ * @see AudioEngine
+ * @author Matthew Flynn
+ * @version March 26th, 2018
+ */
+public final class SynthPatch {
+    
+    /**
+     * A drawbar organ
+     */
+    public static final SynthPatch ORGAN = additive(
+        new float[] {1f, 0.6f, 0.4f, 0.25f, 0f, 0.2f, 0f, 0.15f},
+        0.01f, 0.05f, 0.8f, 1f, 0.15f);
+    /**
+     * A soft flute
+     */
+    public static final SynthPatch FLUTE = additive(
+        new float[] {1f, 0.2f, 0.08f, 0.03f},
+        0.06f, 0.1f, 0.7f, 0.8f, 0.2f);
+    
+    // the waveform has 1 << TABLE_BITS values
+    private static final int TABLE_BITS = 11;
+    // the loudest value in the waveform, leaving room for several notes
+    private static final int TABLE_PEAK = Short.MAX_VALUE / 2;
+    // the envelope is fixed point, with this many fractional bits
+    private static final int ENV_BITS = 24;
+    private static final int ENV_MAX = 1 << ENV_BITS;
+    // the engine's gain is fixed point, with this many fractional bits
+    private static final int GAIN_BITS = 12;
+    // how far through the waveform each frame steps, for each MIDI note, out
+    // of 2^32 for a whole cycle
+    private static final int[] PHASE_STEPS = new int[128];
+    static {
+        for (int i = 0;i < PHASE_STEPS.length;i++) {
+            double frequency = Pitch.fromMidi(i).frequency;
+            PHASE_STEPS[i] = (int)(long)(frequency / AudioEngine.SAMPLE_RATE * 4294967296.0);
+        }
+    }
+    
+    // one cycle of the waveform
+    private final short[] table;
+    // the envelope: the length of each stage in frames, and the level held
+    private final int attackFrames;
+    private final int decayFrames;
+    private final int sustainLevel;
+    private final int holdFrames;
+    private final int releaseFrames;
+    
+    private SynthPatch(short[] table, int attackFrames, int decayFrames,
+            int sustainLevel, int holdFrames, int releaseFrames) {
+        this.table = table;
+        this.attackFrames = attackFrames;
+        this.decayFrames = decayFrames;
+        this.sustainLevel = sustainLevel;
+        this.holdFrames = holdFrames;
+        this.releaseFrames = releaseFrames;
+    }
+    
+    /**
+     * Makes a patch by adding together harmonics
+     * 
+     * @param harmonics the strength of each harmonic, starting with the
+     * fundamental
+     * @param attack the time taken to reach full volume, in seconds
+     * @param decay the time taken to fall to the sustain level, in seconds
+     * @param sustain the level held, from 0 to 1
+     * @param hold how long the sustain level is held, in seconds
+     * @param release the time taken to fall silent, in seconds
+     * @return the patch
+     */
+    public static SynthPatch additive(float[] harmonics, float attack,
+            float decay, float sustain, float hold, float release) {
+        if (sustain < 0 || sustain > 1) {
+            throw new IllegalArgumentException("Invalid sustain level (" + sustain + ")");
+        }
+        double[] wave = new double[1 << TABLE_BITS];
+        double peak = 0;
+        for (int i = 0;i < wave.length;i++) {
+            for (int h = 0;h < harmonics.length;h++) {
+                wave[i] += harmonics[h] * Math.sin(2 * Math.PI * (h + 1) * i / wave.length);
+            }
+            peak = Math.max(peak, Math.abs(wave[i]));
+        }
+        short[] table = new short[wave.length];
+        for (int i = 0;i < table.length;i++) {
+            table[i] = (short)Math.round(peak == 0 ? 0 : wave[i] / peak * TABLE_PEAK);
+        }
+        return new SynthPatch(table, frames(attack), frames(decay),
+            Math.round(sustain * ENV_MAX), frames(hold), frames(release));
+    }
+    
+    /**
+     * @return the length of a note, from the start of its attack to the end
+     * of its release, in frames
+     */
+    public int getNoteFrames() {
+        return attackFrames + decayFrames + holdFrames + releaseFrames;
+    }
+    
+    /**
+     * Renders a whole note into a <code>Sample</code>, for anything that
+     * needs the note as audio rather than playing it through the engine
+     * 
+     * @param p the pitch of the note
+     * @return the note
+     */
+    public Sample render(Pitch p) {
+        int frames = getNoteFrames();
+        int[] mix = new int[frames * AudioEngine.CHANNELS];
+        Tone tone = new Tone();
+        tone.start(this, p.MIDICode);
+        tone.mixInto(mix, frames, 1 << GAIN_BITS);
+        short[] pcm = new short[mix.length];
+        for (int i = 0;i < pcm.length;i++) {
+            pcm[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+        }
+        return new Sample(pcm);
+    }
+    
+    // converts a time in seconds to a whole number of frames
+    private static int frames(float seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Invalid envelope time (" + seconds + ")");
+        }
+        return Math.round(seconds * AudioEngine.SAMPLE_RATE);
+    }
+    
+    /**
+     * One synthesized note being played. A tone is reused for note after
+     * note, and only used by one thread at a time
+     */
+    static final class Tone {
+        
+        // the stages of the envelope
+        private static final int ATTACK = 0;
+        private static final int DECAY = 1;
+        private static final int SUSTAIN = 2;
+        private static final int RELEASE = 3;
+        private static final int DONE = 4;
+        
+        private SynthPatch patch;
+        // the position in the waveform, and how far it moves each frame
+        private int phase;
+        private int step;
+        // the envelope's stage, the frames left in it, its level, the level
+        // it ends on and how much the level changes each frame
+        private int stage = DONE;
+        private int stageLeft;
+        private int level;
+        private int target;
+        private int slope;
+        
+        // starts a note of the given MIDI code
+        void start(SynthPatch patch, int midi) {
+            this.patch = patch;
+            phase = 0;
+            step = PHASE_STEPS[midi];
+            level = 0;
+            enter(ATTACK, ENV_MAX, patch.attackFrames);
+        }
+        
+        // makes this tone play the same note as another, from the same point
+        void copyFrom(Tone other) {
+            patch = other.patch;
+            phase = other.phase;
+            step = other.step;
+            stage = other.stage;
+            stageLeft = other.stageLeft;
+            level = other.level;
+            target = other.target;
+            slope = other.slope;
+        }
+        
+        // fades the note out over the given number of frames
+        void release(int frames) {
+            enter(RELEASE, 0, frames);
+        }
+        
+        boolean isDone() {
+            return stage == DONE;
+        }
+        
+        // adds up to the given number of frames of the note into the mix, at
+        // a fixed point gain with 12 fractional bits. Returns the loudest
+        // value added
+        int mixInto(int[] mix, int frames, int gain) {
+            short[] table = patch.table;
+            int shift = 32 - TABLE_BITS;
+            int peak = 0;
+            int frame = 0;
+            while (frame < frames && stage != DONE) {
+                // within a stage the envelope is a straight line, so the
+                // inner loop has no branches
+                int end = frame + Math.min(frames - frame, stageLeft);
+                stageLeft -= end - frame;
+                for (;frame < end;frame++) {
+                    int value = (table[phase >>> shift] * (level >> (ENV_BITS - 15))) >> 15;
+                    value = (value * gain) >> GAIN_BITS;
+                    for (int c = 0;c < AudioEngine.CHANNELS;c++) {
+                        mix[frame * AudioEngine.CHANNELS + c] += value;
+                    }
+                    peak = Math.max(peak, Math.abs(value));
+                    phase += step;
+                    level += slope;
+                }
+                if (stageLeft == 0) {
+                    nextStage();
+                }
+            }
+            return peak;
+        }
+        
+        private void nextStage() {
+            // the stage ends exactly on its target
+            level = target;
+            switch (stage) {
+            case ATTACK:
+                enter(DECAY, patch.sustainLevel, patch.decayFrames);
+                break;
+            case DECAY:
+                enter(SUSTAIN, patch.sustainLevel, patch.holdFrames);
+                break;
+            case SUSTAIN:
+                enter(RELEASE, 0, patch.releaseFrames);
+                break;
+            default:
+                stage = DONE;
+            }
+        }
+        
+        // starts a stage that moves the level to the target over the given
+        // number of frames
+        private void enter(int stage, int target, int frames) {
+            this.stage = stage;
+            this.target = target;
+            stageLeft = Math.max(1, frames);
+            slope = (target - level) / stageLeft;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,327 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A <code>NoteOutput</code> that renders notes into a WAV file instead of
+ * playing them, mixed by an <code>AudioEngine</code> exactly as they would be
+ * played live, only as fast as the computer can go. Nothing needs an audio
+ * device, and the same notes always render to the same file.
+ * <p>
+ * Notes must be given in order of time. Each note's time is measured from an
+ * origin (by default, when the renderer was made), and before a note is
+ * started, the audio up to its time is mixed. Like the live engine, a note
+ * starts at the beginning of the period after its time. The audio is written
+ * through a <code>FileChannel</code> a block of periods at a time, so however
+ * long the recording is, only one block is ever held in memory. The sizes in
+ * the WAV header aren't known until the end, so they're filled in when the
+ * renderer is closed, after the last notes have played out.
+ * <p>
+ * Unlike <code>SampleOutput</code>, a note whose sample isn't loaded waits
+ * for it to load, since nothing here is in a hurry and every note should
+ * make it into the file.
+ * <p>
+ * Notes can come from a <code>SoundPlayer</code> (replaying a recording of
+ * the sensors renders the performance), or from a script, with
+ * <code>main</code>.
+ * 
+ * @see AudioEngine
+ * @author Matthew Flynn
+ * @version April 9th, 2018
+ */
+public class WavRenderer implements NoteOutput {
+    
+    /**
+     * The number of engine periods written to the file at a time
+     */
+    public static final int BLOCK_PERIODS = 64;
+    
+    // the size of the canonical WAV header
+    private static final int HEADER_SIZE = 44;
+    
+    private final AudioEngine engine;
+    private final FileChannel channel;
+    private final ByteBuffer block;
+    private final long originNanos;
+    // the number of frames mixed so far
+    private long frames;
+    // the number of frames that each voice playing in them added up to
+    private long voiceFrames;
+    // the total time spent mixing and writing
+    private long renderNanos;
+    private boolean closed;
+    
+    /**
+     * Constructs a <code>WavRenderer</code> with an engine of its own, timing
+     * notes from now
+     * 
+     * @param file the WAV file to write
+     * @throws IOException if the file can't be opened
+     */
+    public WavRenderer(File file) throws IOException {
+        this(file, new AudioEngine(), System.nanoTime());
+    }
+    
+    /**
+     * Constructs a <code>WavRenderer</code>
+     * 
+     * @param file the WAV file to write
+     * @param engine an engine that hasn't been started, which is rendered by
+     * hand
+     * @param originNanos the time that the file begins at (in the same terms
+     * as the time of each note)
+     * @throws IOException if the file can't be opened
+     */
+    public WavRenderer(File file, AudioEngine engine, long originNanos)
+            throws IOException {
+        this.engine = engine;
+        this.originNanos = originNanos;
+        block = ByteBuffer.allocateDirect(BLOCK_PERIODS * engine.getPeriodFrames()
+            * AudioEngine.FORMAT.getFrameSize());
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // the header is written properly once the length is known
+        channel.position(HEADER_SIZE);
+    }
+    
+    @Override
+    public synchronized void noteOn(Instrument instrument, Pitch p, float velocity,
+            long time) {
+        if (closed) {
+            return;
+        }
+        renderTo(frameOf(time));
+        float gain = SampleOutput.MIN_GAIN + (1 - SampleOutput.MIN_GAIN) * velocity;
+        if (instrument.patch != null) {
+            engine.play(instrument, p, gain, time);
+        } else {
+            Pitch root = instrument.rootOf(p);
+            engine.play(instrument, instrument.getSound(root),
+                p.MIDICode - root.MIDICode, gain, time);
+        }
+    }
+    
+    @Override
+    public void noteOff(Instrument instrument, Pitch p, long time) {
+        // samples always play to the end
+    }
+    
+    /**
+     * Mixes the audio up to the given time, if it hasn't been already
+     * 
+     * @param time the time to render up to (in the same terms as the time of
+     * each note)
+     */
+    public synchronized void advanceTo(long time) {
+        if (!closed) {
+            renderTo(frameOf(time));
+        }
+    }
+    
+    /**
+     * Lets every note play out, then finishes the WAV file and closes it
+     * 
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // notes queued since the last period only start in the next one
+            while (engine.getPendingNotes() > 0 || engine.getActiveVoices() > 0) {
+                renderPeriod();
+            }
+            // stolen notes may still be fading out
+            for (int i = 0;i < AudioEngine.FADE_FRAMES;i += engine.getPeriodFrames()) {
+                renderPeriod();
+            }
+            flush();
+            writeHeader();
+            channel.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    // the number of frames from the origin to a time
+    private long frameOf(long time) {
+        return (long)((time - originNanos) * (double)AudioEngine.SAMPLE_RATE / 1e9);
+    }
+    
+    // mixes periods until the given frame has been reached
+    private void renderTo(long frame) {
+        while (frames < frame) {
+            renderPeriod();
+        }
+    }
+    
+    // mixes one period into the block, writing the block out when it's full
+    private void renderPeriod() {
+        long start = System.nanoTime();
+        voiceFrames += (long)engine.getActiveVoices() * engine.getPeriodFrames();
+        byte[] period = engine.render();
+        if (block.remaining() < period.length) {
+            flush();
+        }
+        block.put(period);
+        frames += engine.getPeriodFrames();
+        renderNanos += System.nanoTime() - start;
+    }
+    
+    // writes out everything in the block
+    private void flush() {
+        block.flip();
+        try {
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        block.clear();
+    }
+    
+    // writes the canonical 44 byte header of a PCM WAV file, now that the
+    // length of the data is known
+    private void writeHeader() throws IOException {
+        long dataSize = frames * AudioEngine.FORMAT.getFrameSize();
+        if (dataSize > 0xFFFFFFFFL - (HEADER_SIZE - 8)) {
+            throw new IOException("Too much audio for a WAV file (" + dataSize + " bytes)");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII))
+            .putInt((int)(dataSize + HEADER_SIZE - 8))
+            .put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII))
+            .putInt(16)
+            .putShort((short)1)
+            .putShort((short)AudioEngine.CHANNELS)
+            .putInt((int)AudioEngine.SAMPLE_RATE)
+            .putInt((int)AudioEngine.SAMPLE_RATE * AudioEngine.FORMAT.getFrameSize())
+            .putShort((short)AudioEngine.FORMAT.getFrameSize())
+            .putShort((short)AudioEngine.FORMAT.getSampleSizeInBits())
+            .put("data".getBytes(StandardCharsets.US_ASCII))
+            .putInt((int)dataSize);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+    
+    /**
+     * @return the number of frames rendered so far
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+    
+    /**
+     * @return the number of frames rendered so far, counted once for every
+     * voice playing in them
+     */
+    public synchronized long getVoiceFrames() {
+        return voiceFrames;
+    }
+    
+    /**
+     * @return the total time spent mixing and writing the audio, in
+     * nanoseconds
+     */
+    public synchronized long getRenderNanos() {
+        return renderNanos;
+    }
+    
+    /**
+     * @return how many voices could be mixed at once in real time, at the
+     * rate that they've been rendered so far (0 if nothing has played)
+     */
+    public synchronized double getRealTimeVoices() {
+        return renderNanos == 0 ? 0
+            : voiceFrames / (double)AudioEngine.SAMPLE_RATE / (renderNanos / 1e9);
+    }
+    
+    /**
+     * @return the engine that the notes are mixed by
+     */
+    public AudioEngine getEngine() {
+        return engine;
+    }
+    
+    // finds a pitch by its name, as written by toString (C#4) or in the code
+    // (Cs4)
+    private static Pitch parsePitch(String name) {
+        for (Pitch p : Pitch.values()) {
+            if (p.toString().equals(name)) {
+                return p;
+            }
+        }
+        return Pitch.valueOf(name);
+    }
+    
+    /**
+     * Renders a script of notes into a WAV file. Each line of the script is
+     * one note: its time in milliseconds from the start, its instrument, its
+     * pitch (such as <code>C#4</code>), and optionally its velocity from 0
+     * to 1 (1 by default), separated by spaces, such as <code>1500 piano C4
+     * 0.8</code>. Blank lines and lines starting with <code>#</code> are
+     * skipped. The notes must be in order of time
+     * 
+     * @param args the script, then the WAV file to write
+     * @throws IOException if the script can't be read, or the file can't be
+     * written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: WavRenderer SCRIPT WAV_FILE");
+            return;
+        }
+        long start = System.nanoTime();
+        // sounds are loaded as they're needed, but the roots are looked for
+        // up front
+        Instrument.findRoots();
+        WavRenderer renderer = new WavRenderer(new File(args[1]), new AudioEngine(), 0);
+        try (BufferedReader in = Files.newBufferedReader(new File(args[0]).toPath(),
+                StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                try {
+                    long time = (long)(Double.parseDouble(fields[0]) * 1000000);
+                    Instrument instrument = Instrument.valueOf(fields[1].toUpperCase());
+                    Pitch p = parsePitch(fields[2]);
+                    float velocity = fields.length > 3 ? Float.parseFloat(fields[3]) : 1f;
+                    renderer.noteOn(instrument, p, velocity, time);
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Bad note on line " + number + ": " + line, e);
+                }
+            }
+        } finally {
+            renderer.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("Rendered %.1fs of audio in %dms (%.0fx real time), "
+            + "mixing at %.0f voices in real time%n",
+            renderer.getFrames() / AudioEngine.SAMPLE_RATE, elapsed / 1000000,
+            renderer.getFrames() / AudioEngine.SAMPLE_RATE / (elapsed / 1e9),
+            renderer.getRealTimeVoices());
+    }
+    
+}
@@ -0,0 +1,104 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that readings recorded by an <code>AdcRecorder</code> come back
+ * unchanged from an <code>AdcReplay</code>
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class AdcRecordingTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void readingsSurviveTheRoundTrip() throws IOException {
+        File file = folder.newFile("readings.adc");
+        // big jumps both ways, the extremes of a short, and long gaps, so
+        // that the zigzag and every length of varint are used
+        int[] channels = {0, 1, 2, 0, 1, 2, 5, 5, 0};
+        short[] values = {2000, 0, 4095, Short.MIN_VALUE, Short.MAX_VALUE, -1, 1, 1, 2047};
+        long[] gaps = {0, 1, 127, 128, 16384, 0, 1L << 35, 3, 1000000};
+        try (AdcRecorder recorder = new AdcRecorder(file, 6)) {
+            long time = 1000;
+            for (int i = 0;i < values.length;i++) {
+                time += gaps[i];
+                recorder.onSample(time, channels[i], values[i]);
+            }
+            assertEquals(values.length, recorder.getRecords());
+        }
+        List<long[]> replayed = replay(file);
+        assertEquals(values.length, replayed.size());
+        long start = replayed.get(0)[0];
+        long expected = 0;
+        for (int i = 0;i < values.length;i++) {
+            expected += gaps[i];
+            assertEquals(expected, replayed.get(i)[0] - start);
+            assertEquals(channels[i], replayed.get(i)[1]);
+            assertEquals(values[i], replayed.get(i)[2]);
+        }
+    }
+    
+    @Test
+    public void readingsAfterCloseAreDropped() throws IOException {
+        File file = folder.newFile("closed.adc");
+        AdcRecorder recorder = new AdcRecorder(file, 2);
+        recorder.onSample(1, 0, (short)100);
+        recorder.close();
+        recorder.onSample(2, 1, (short)200);
+        recorder.flush();
+        recorder.close();
+        assertEquals(1, recorder.getRecords());
+        assertEquals(1, replay(file).size());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void aChannelOutsideTheRecordingIsRejected() throws IOException {
+        try (AdcRecorder recorder = new AdcRecorder(folder.newFile("small.adc"), 2)) {
+            recorder.onSample(1, 2, (short)0);
+        }
+    }
+    
+    @Test
+    public void aFilteredReplayStillPublishesEveryReading() throws IOException {
+        File file = folder.newFile("scans.adc");
+        try (AdcRecorder recorder = new AdcRecorder(file, 2)) {
+            for (int i = 0;i < 100;i++) {
+                recorder.onSample(i * 1000000L, 0, (short)2000);
+                recorder.onSample(i * 1000000L, 1, (short)(i == 50 ? 4000 : 1000));
+            }
+        }
+        SampleRing ring = new SampleRing(1024);
+        AdcReplay replay = new AdcReplay(file, ring, false);
+        replay.setFilter(new ScanFilter(2));
+        replay.run();
+        assertEquals(200, replay.getReplayed());
+        List<long[]> readings = new ArrayList<>();
+        ring.drain((time, channel, value) -> readings.add(new long[] {time, channel, value}), 1024);
+        for (long[] reading : readings) {
+            // the single spike is taken out by the filter
+            assertEquals(reading[1] == 0 ? 2000 : 1000, reading[2]);
+        }
+    }
+    
+    // plays a recording back as fast as possible, into a list of (time,
+    // channel, value)
+    private static List<long[]> replay(File file) {
+        SampleRing ring = new SampleRing(1024);
+        new AdcReplay(file, ring, false).run();
+        List<long[]> ret = new ArrayList<>();
+        ring.drain((time, channel, value) -> ret.add(new long[] {time, channel, value}), 1024);
+        return ret;
+    }
+    
+}
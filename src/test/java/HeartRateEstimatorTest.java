@@ -0,0 +1,88 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests a <code>HeartRateEstimator</code> on made-up pulses
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class HeartRateEstimatorTest {
+    
+    private static final long MILLISECOND = 1000000;
+    
+    // feeds the estimator a pulse at the given rate for a while, at one
+    // reading every millisecond. Returns the time after the last reading
+    private static long pulse(HeartRateEstimator estimator, long time, double bpm,
+            int millis) {
+        double period = 60000 / bpm;
+        for (int i = 0;i < millis;i++) {
+            double phase = (i % period) / period;
+            int beat = (int)(100 * Math.exp(-Math.pow(phase - 0.2, 2) / 0.005));
+            estimator.update(time, 2000 + beat);
+            time += MILLISECOND;
+        }
+        return time;
+    }
+    
+    // feeds the estimator a flat signal
+    private static long rest(HeartRateEstimator estimator, long time, int millis) {
+        for (int i = 0;i < millis;i++) {
+            estimator.update(time, 2000);
+            time += MILLISECOND;
+        }
+        return time;
+    }
+    
+    @Test
+    public void aSteadyPulseIsFound() {
+        HeartRateEstimator estimator = new HeartRateEstimator();
+        pulse(estimator, MILLISECOND, 72, 20000);
+        assertEquals(72, estimator.getBpm(), 1);
+        assertTrue(estimator.getConfidence() > 0.9f);
+    }
+    
+    @Test
+    public void theSameRateIsFoundAtAnyReadingRate() {
+        HeartRateEstimator estimator = new HeartRateEstimator();
+        double period = 60000 / 72.0;
+        long time = MILLISECOND;
+        // one reading every 5 milliseconds, as when the sampler is idle
+        for (int i = 0;i < 20000;i += 5) {
+            double phase = (i % period) / period;
+            estimator.update(time, 2000 + (int)(100 * Math.exp(-Math.pow(phase - 0.2, 2) / 0.005)));
+            time += 5 * MILLISECOND;
+        }
+        assertEquals(72, estimator.getBpm(), 1);
+    }
+    
+    @Test
+    public void aLostPulseStartsTheRingOver() {
+        HeartRateEstimator estimator = new HeartRateEstimator();
+        long time = pulse(estimator, MILLISECOND, 60, 20000);
+        assertEquals(60, estimator.getBpm(), 1);
+        // longer than the slowest heart rate allows
+        time = rest(estimator, time, 3000);
+        assertEquals(0, estimator.getBpm(), 0);
+        // a few beats at a new rate. If the ring didn't start over from its
+        // first slot, the old intervals would be counted in the confidence
+        pulse(estimator, time, 100, 3700);
+        assertEquals(100, estimator.getBpm(), 2);
+        float fewBeats = estimator.getConfidence();
+        assertTrue(fewBeats > 0.3f && fewBeats < 0.9f);
+    }
+    
+    @Test
+    public void resetForgetsTheEstimate() {
+        HeartRateEstimator estimator = new HeartRateEstimator();
+        long time = pulse(estimator, MILLISECOND, 72, 20000);
+        estimator.reset();
+        assertEquals(0, estimator.getBpm(), 0);
+        assertEquals(0, estimator.getConfidence(), 0);
+        pulse(estimator, time, 90, 3000);
+        assertTrue(estimator.getConfidence() < 0.9f);
+    }
+    
+}
@@ -0,0 +1,85 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the frames that an <code>MCP3208</code> sends and receives, against
+ * the stand-ins for the chip
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class MCP3208Test {
+    
+    @Test
+    public void everyChannelsRequestDecodesToItsChannel() {
+        byte[] frame = new byte[MCP3208.FRAME_SIZE];
+        for (int channel = 0;channel < MCP3208.CHANNELS;channel++) {
+            MCP3208.encodeRequest(channel, frame);
+            assertEquals(channel, MCP3208.decodeRequest(frame));
+        }
+    }
+    
+    @Test
+    public void aMalformedRequestIsRejected() {
+        byte[] frame = {0b00000100, 0, 0};
+        assertEquals(-1, MCP3208.decodeRequest(frame));
+        frame = new byte[] {0b00000110, 0b00000001, 0};
+        assertEquals(-1, MCP3208.decodeRequest(frame));
+    }
+    
+    @Test
+    public void everyValueSurvivesAResponse() {
+        byte[] frame = new byte[MCP3208.FRAME_SIZE];
+        for (int value = 0;value < 4096;value++) {
+            MCP3208.encodeResponse((short)value, frame);
+            assertEquals(value, MCP3208.decodeResponse(frame));
+        }
+    }
+    
+    @Test
+    public void readAsksForTheRightChannel() {
+        ScriptedTransport transport = new ScriptedTransport((short)0, (short)4095, (short)1234);
+        MCP3208 adc = new MCP3208(transport);
+        assertEquals(0, adc.read(5));
+        assertEquals(5, transport.getLastChannel());
+        assertEquals(4095, adc.read(0));
+        assertEquals(0, transport.getLastChannel());
+        assertEquals(1234, adc.read(7));
+        assertEquals(7, transport.getLastChannel());
+    }
+    
+    @Test
+    public void scanOnlyReadsTheMaskedChannels() {
+        ScriptedTransport transport = new ScriptedTransport((short)100, (short)200);
+        MCP3208 adc = new MCP3208(transport);
+        short[] out = new short[MCP3208.CHANNELS];
+        out[1] = -1;
+        assertEquals(2, adc.scan(0b10000001, out));
+        assertEquals(100, out[0]);
+        assertEquals(-1, out[1]);
+        assertEquals(200, out[7]);
+        assertEquals(2, transport.getTransfers());
+        assertEquals(1, adc.getScanCount());
+        assertTrue(adc.getScanEnd() >= adc.getScanStart());
+    }
+    
+    @Test
+    public void theSimulatedChipAnswersEveryChannel() {
+        SimulatedMCP3208 sim = new SimulatedMCP3208(1L);
+        MCP3208 adc = new MCP3208(sim);
+        short[] out = new short[MCP3208.CHANNELS];
+        assertEquals(MCP3208.CHANNELS, adc.scan(out));
+        for (short value : out) {
+            assertTrue(value >= 0 && value < 4096);
+        }
+        assertEquals(MCP3208.CHANNELS, sim.getConversions());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void aMissingChannelCantBeRead() {
+        new MCP3208(new ScriptedTransport((short)0)).read(8);
+    }
+    
+}
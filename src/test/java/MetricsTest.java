@@ -0,0 +1,59 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests that <code>Metrics</code> reports the heart rate of each sensor, both
+ * in its summary and over JMX
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class MetricsTest {
+    
+    private static final long MILLISECOND = 1000000;
+    
+    @After
+    public void forgetSensors() {
+        Metrics.setSensors();
+    }
+    
+    // makes a sensor that has been fed a steady pulse for a while
+    private static PulseSensor pulsingSensor(double bpm) {
+        PulseSensor sensor = new PulseSensor(null, 0, Pitch.C4);
+        sensor.trackHeartRate();
+        double period = 60000 / bpm;
+        for (int i = 0;i < 20000;i++) {
+            double phase = (i % period) / period;
+            int beat = (int)(100 * Math.exp(-Math.pow(phase - 0.2, 2) / 0.005));
+            sensor.update((i + 1) * MILLISECOND, (short)(2000 + beat));
+        }
+        return sensor;
+    }
+    
+    @Test
+    public void heartRatesAreReportedPerChannel() throws JMException {
+        PulseSensor untracked = new PulseSensor(null, 1, Pitch.D4);
+        Metrics.setSensors(pulsingSensor(72), untracked);
+        Metrics.register();
+        double[] bpms = (double[])ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(new ObjectName(Metrics.OBJECT_NAME), "HeartRates");
+        assertEquals(2, bpms.length);
+        assertEquals(72, bpms[0], 1);
+        assertEquals(0, bpms[1], 0);
+        double[] confidences = (double[])ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(new ObjectName(Metrics.OBJECT_NAME), "HeartRateConfidences");
+        assertTrue(confidences[0] > 0.9);
+        assertEquals(0, confidences[1], 0);
+        String summary = Metrics.summary();
+        assertTrue(summary, summary.contains("heart rates: 72bpm ("));
+        assertTrue(summary, summary.contains("%) -"));
+    }
+    
+}
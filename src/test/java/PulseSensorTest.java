@@ -0,0 +1,125 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how a <code>PulseSensor</code> turns readings into presses
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class PulseSensorTest {
+    
+    private static final long MILLISECOND = 1000000;
+    
+    private PulseSensor sensor;
+    private EventQueue events;
+    private long time;
+    
+    @Before
+    public void makeSensor() {
+        sensor = new PulseSensor(null, 0, Pitch.C4);
+        events = new EventQueue(64);
+        sensor.setEventQueue(events);
+        time = 0;
+    }
+    
+    // gives the sensor a reading a millisecond after the last, and returns
+    // the events it reported
+    private List<PulseEvent> read(int value) {
+        time += MILLISECOND;
+        sensor.update(time, (short)value);
+        List<PulseEvent> ret = new ArrayList<>();
+        events.drain(event -> {
+            PulseEvent copy = new PulseEvent();
+            copy.type = event.getType();
+            copy.time = event.getTime();
+            ret.add(copy);
+        }, 64);
+        return ret;
+    }
+    
+    @Test
+    public void aPressAndReleaseAreReported() {
+        sensor.setAdaptive(false);
+        read(2000);
+        assertTrue(read(500).isEmpty());
+        // reported once the reading comes back up from its trough
+        List<PulseEvent> press = read(700);
+        assertEquals(1, press.size());
+        assertEquals(PulseEvent.PRESS, press.get(0).getType());
+        List<PulseEvent> release = read(2000);
+        assertEquals(1, release.size());
+        assertEquals(PulseEvent.RELEASE, release.get(0).getType());
+        assertEquals(1, sensor.getTriggerCount());
+    }
+    
+    @Test
+    public void aSlowPressIsReportedWhileStillFalling() {
+        sensor.setAdaptive(false);
+        read(2000);
+        long start = time + MILLISECOND;
+        long reported = -1;
+        int value = 850;
+        for (int i = 0;i < 200 && reported < 0;i++) {
+            value -= 4;
+            if (!read(value).isEmpty()) {
+                reported = time;
+            }
+        }
+        assertTrue("a press that never stopped falling wasn't reported", reported >= 0);
+        assertTrue(reported - start <= PulseSensor.MAX_TROUGH_NANOS);
+    }
+    
+    @Test
+    public void aRestingLevelThatStepsDownEndsThePressInTheEnd() {
+        Random noise = new Random(1);
+        for (int i = 0;i < 3000;i++) {
+            read(2000 + noise.nextInt(9) - 4);
+        }
+        assertEquals(2000, sensor.getBaseline(), 5);
+        // the level drops below the trigger level, and stays there
+        boolean released = false;
+        for (int i = 0;i < 120000 && !released;i++) {
+            for (PulseEvent event : read(800 + noise.nextInt(9) - 4)) {
+                released |= event.getType() == PulseEvent.RELEASE;
+            }
+        }
+        assertTrue("the sensor stayed pressed", released);
+        assertEquals(1, sensor.getTriggerCount());
+        // the baseline follows the new level, and then the old one again
+        for (int i = 0;i < 10000;i++) {
+            read(800 + noise.nextInt(9) - 4);
+        }
+        assertEquals(800, sensor.getBaseline(), 50);
+        for (int i = 0;i < 10000;i++) {
+            read(2000 + noise.nextInt(9) - 4);
+        }
+        assertEquals(2000, sensor.getBaseline(), 50);
+        // so presses are detected again
+        read(500);
+        read(700);
+        read(2000);
+        assertEquals(2, sensor.getTriggerCount());
+    }
+    
+    @Test
+    public void aShortPressHardlyMovesTheBaseline() {
+        for (int i = 0;i < 3000;i++) {
+            read(2000);
+        }
+        for (int i = 0;i < 1000;i++) {
+            read(800);
+        }
+        assertEquals(2000, sensor.getBaseline(), 100);
+        read(2000);
+        assertEquals(1, sensor.getTriggerCount());
+    }
+    
+}
@@ -0,0 +1,81 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests that a <code>SampleRing</code> and an <code>EventQueue</code> keep
+ * their order and drop only what doesn't fit, as their positions wrap
+ * around
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class RingTest {
+    
+    @Test
+    public void theCapacityIsRoundedUpToAPowerOfTwo() {
+        SampleRing ring = new SampleRing(3);
+        for (int i = 0;i < 4;i++) {
+            assertTrue(ring.offer(i, 0, (short)i));
+        }
+        assertFalse(ring.offer(4, 0, (short)4));
+        assertEquals(1, ring.getDropped());
+    }
+    
+    @Test
+    public void sampleRingKeepsItsOrderAcrossManyWraps() {
+        SampleRing ring = new SampleRing(4);
+        List<Integer> taken = new ArrayList<>();
+        int next = 0;
+        // the ring is never quite emptied, so the positions wrap unevenly
+        for (int round = 0;round < 1000;round++) {
+            while (ring.offer(next, next % 7, (short)next)) {
+                next++;
+            }
+            ring.drain((time, channel, value) -> {
+                assertEquals(time % 7, channel);
+                assertEquals((short)time, value);
+                taken.add((int)time);
+            }, 3);
+        }
+        ring.drain((time, channel, value) -> taken.add((int)time), 4);
+        assertEquals(next, taken.size());
+        for (int i = 0;i < taken.size();i++) {
+            assertEquals(i, (int)taken.get(i));
+        }
+        assertEquals(0, ring.size());
+        // one failed offer per round
+        assertEquals(1000, ring.getDropped());
+    }
+    
+    @Test
+    public void eventQueueKeepsItsOrderAcrossManyWraps() {
+        EventQueue events = new EventQueue(4);
+        PulseSensor sensor = new PulseSensor(null, 3, Pitch.C4);
+        List<Long> taken = new ArrayList<>();
+        long next = 0;
+        for (int round = 0;round < 1000;round++) {
+            while (events.offer(PulseEvent.PRESS, next, sensor, 0.5f)) {
+                next++;
+            }
+            events.drain(event -> {
+                assertSame(sensor, event.getSensor());
+                assertEquals(3, event.getChannel());
+                taken.add(event.getTime());
+            }, 3);
+        }
+        events.drain(event -> taken.add(event.getTime()), 4);
+        assertEquals(next, taken.size());
+        for (int i = 0;i < taken.size();i++) {
+            assertEquals(i, (long)taken.get(i));
+        }
+        assertEquals(1000, events.getDropped());
+    }
+    
+}
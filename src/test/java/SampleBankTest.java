@@ -0,0 +1,119 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a <code>SampleBank</code> serves what was packed into it, and
+ * that a bank that's cut short or corrupt is reported as unreadable rather
+ * than failing later. Also tests that a banked sound is played for the
+ * pitches around it
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class SampleBankTest {
+    
+    private static final int FRAMES = 1000;
+    // where the first sample's MIDI code is in the header: the magic, the
+    // version, rate, channels, stamp and number of instruments, then the
+    // length of the first name, the name ("piano") and its number of samples
+    private static final int FIRST_MIDI = 8 + 4 + 4 + 4 + 8 + 4 + 2 + 5 + 4;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File samples;
+    private File bankFile;
+    
+    @Before
+    public void packOneSample() throws Exception {
+        samples = folder.newFolder("samples");
+        File soundFile = Instrument.PIANO.fileOf(samples, Pitch.C4);
+        soundFile.getParentFile().mkdirs();
+        byte[] data = new byte[FRAMES * AudioEngine.FORMAT.getFrameSize()];
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data),
+            AudioEngine.FORMAT, FRAMES), AudioFileFormat.Type.WAVE, soundFile);
+        bankFile = new File(samples, SampleBank.DEFAULT_NAME);
+        SampleBank.pack(samples, bankFile);
+    }
+    
+    @Test
+    public void aPackedSampleCanBeOpened() throws IOException {
+        SampleBank bank = SampleBank.open(bankFile);
+        Sample sample = bank.getSample(Instrument.PIANO, Pitch.C4);
+        assertNotNull(sample);
+        assertEquals(FRAMES, sample.frames);
+        assertNull(bank.getSample(Instrument.PIANO, Pitch.D4));
+    }
+    
+    @Test
+    public void aTruncatedBankIsAnIOException() throws IOException {
+        byte[] whole = Files.readAllBytes(bankFile.toPath());
+        for (int length : new int[] {0, 4, 20, 36, 44, 60, whole.length - 1}) {
+            Files.write(bankFile.toPath(), Arrays.copyOf(whole, length));
+            try {
+                SampleBank.open(bankFile);
+                fail("A bank cut to " + length + " bytes was opened");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+    
+    @Test(expected = IOException.class)
+    public void aSampleOutsideTheMidiRangeIsAnIOException() throws IOException {
+        corrupt(FIRST_MIDI, 500);
+        SampleBank.open(bankFile);
+    }
+    
+    @Test(expected = IOException.class)
+    public void aSampleOutsideTheFileIsAnIOException() throws IOException {
+        // the offset of the first sample
+        corrupt(FIRST_MIDI + 4, Integer.MAX_VALUE);
+        SampleBank.open(bankFile);
+    }
+    
+    @Test
+    public void aCorruptBankIsRebuilt() throws IOException {
+        corrupt(FIRST_MIDI, 500);
+        SampleBank bank = SampleBank.loadOrBuild(samples, bankFile);
+        assertEquals(FRAMES, bank.getSample(Instrument.PIANO, Pitch.C4).frames);
+    }
+    
+    @Test
+    public void aBankedSoundIsTheRootOfThePitchesAroundIt() throws IOException {
+        Instrument.setCache(new SampleCache(SampleCache.DEFAULT_BUDGET, 1));
+        Instrument.useBank(SampleBank.open(bankFile));
+        assertEquals(Pitch.C4, Instrument.PIANO.rootOf(Pitch.C4));
+        assertEquals(Pitch.C4, Instrument.PIANO.rootOf(Pitch.D4));
+        assertEquals(Pitch.C4, Instrument.PIANO.rootOf(Pitch.fromMidi(0)));
+        assertEquals(Pitch.C4, Instrument.PIANO.rootOf(Pitch.fromMidi(127)));
+        // a synthesized instrument plays every pitch as it is
+        assertEquals(Pitch.D4, Instrument.ORGAN.rootOf(Pitch.D4));
+    }
+    
+    // overwrites an int in the bank file
+    private void corrupt(int position, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(bankFile.toPath());
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(position, value);
+        Files.write(bankFile.toPath(), bytes);
+    }
+    
+}
@@ -0,0 +1,61 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the budget and the accounting of a <code>SampleCache</code>, using
+ * a synthesized instrument so that nothing has to be read from disk
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class SampleCacheTest {
+    
+    private final long size = SynthPatch.ORGAN.render(Pitch.C4).getSizeInBytes();
+    private SampleCache cache;
+    
+    @Test
+    public void aMissStartsALoadWithoutWaiting() {
+        cache = new SampleCache(100 * size, 1);
+        assertNull(cache.get(Instrument.ORGAN, Pitch.C4));
+        assertNotNull(cache.load(Instrument.ORGAN, Pitch.C4).join());
+        assertNotNull(cache.get(Instrument.ORGAN, Pitch.C4));
+        assertEquals(size, cache.getResidentBytes());
+    }
+    
+    @Test
+    public void theLeastRecentlyUsedAreEvictedToStayInBudget() {
+        cache = new SampleCache(3 * size + size / 2, 2);
+        for (int midi = 60;midi < 66;midi++) {
+            cache.load(Instrument.ORGAN, Pitch.fromMidi(midi)).join();
+        }
+        assertTrue(cache.getResidentBytes() <= cache.getBudget());
+        assertTrue(cache.contains(Instrument.ORGAN, Pitch.fromMidi(65)));
+        assertFalse(cache.contains(Instrument.ORGAN, Pitch.fromMidi(60)));
+        assertEquals(3, cache.getEvictions());
+    }
+    
+    @Test
+    public void replacingALoadCountsOnlyTheNewSample() {
+        cache = new SampleCache(Long.MAX_VALUE / 4, 4);
+        Sample sample = SynthPatch.ORGAN.render(Pitch.C4);
+        // put over loads that are still running, over and over, so that
+        // some loads finish after their entry is replaced
+        for (int round = 0;round < 50;round++) {
+            for (int midi = 0;midi < 128;midi++) {
+                cache.load(Instrument.ORGAN, Pitch.fromMidi(midi));
+                cache.put(Instrument.ORGAN, Pitch.fromMidi(midi), sample);
+            }
+        }
+        for (int midi = 0;midi < 128;midi++) {
+            cache.load(Instrument.ORGAN, Pitch.fromMidi(midi)).join();
+        }
+        assertEquals(128 * sample.getSizeInBytes(), cache.getResidentBytes());
+        assertEquals(cache.getResidentBytes(), cache.getResidentBytes(Instrument.ORGAN));
+    }
+    
+}
@@ -0,0 +1,66 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a <code>WavRenderer</code> lets every note play out before it
+ * finishes the file
+ * 
+ * @author Matthew Flynn
+ * @version April 14th, 2018
+ */
+public class WavRendererTest {
+    
+    private static final int HEADER_SIZE = 44;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    // renders a script, and returns the number of frames in the WAV file
+    private long render(String... lines) throws IOException {
+        File script = folder.newFile();
+        File wav = new File(folder.getRoot(), script.getName() + ".wav");
+        Files.write(script.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        WavRenderer.main(new String[] {script.getPath(), wav.getPath()});
+        long dataSize = wav.length() - HEADER_SIZE;
+        assertEquals(0, dataSize % AudioEngine.FORMAT.getFrameSize());
+        return dataSize / AudioEngine.FORMAT.getFrameSize();
+    }
+    
+    @Test
+    public void aSingleNotePlaysToTheEnd() throws IOException {
+        int noteFrames = SynthPatch.ORGAN.render(Pitch.C4).frames;
+        long frames = render("0 organ C4");
+        assertTrue("only " + frames + " frames rendered", frames >= noteFrames);
+        // no more than the note, a period to start it, and the fade
+        assertTrue(frames <= noteFrames + 2 * AudioEngine.DEFAULT_PERIOD
+            + AudioEngine.FADE_FRAMES);
+    }
+    
+    @Test
+    public void theLastOfSeveralNotesPlaysToTheEnd() throws IOException {
+        int noteFrames = SynthPatch.ORGAN.render(Pitch.E4).frames;
+        long frames = render("0 organ C4", "500 organ E4");
+        assertTrue("only " + frames + " frames rendered",
+            frames >= AudioEngine.SAMPLE_RATE / 2 + noteFrames);
+    }
+    
+    @Test
+    public void renderingOfflineRecordsNoLatencies() throws IOException {
+        long pressToSound = Metrics.PRESS_TO_SOUND.getCount();
+        long lineStart = Metrics.LINE_START.getCount();
+        render("0 organ C4", "10 organ E4");
+        assertEquals(pressToSound, Metrics.PRESS_TO_SOUND.getCount());
+        assertEquals(lineStart, Metrics.LINE_START.getCount());
+    }
+    
+}